@@ -0,0 +1,210 @@
+package com.iextrem.web.http.useragent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publisher for body of response - data is read from connection only when subscriber requests it.
+ * Only one subscriber is allowed. Connection is released after last chunk, error, cancel or close.
+ */
+class BodyPublisher implements Flow.Publisher<ByteBuffer> {
+    private static final int BUFFER_SIZE = 16384;
+
+    private final HttpURLConnection connection;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final AtomicBoolean disconnected = new AtomicBoolean();
+    private volatile BodySubscription subscription;
+    private volatile boolean closed;
+
+    /**
+     * @param connection connection with received header, null for empty body
+     * @param executor executor for reading from connection
+     */
+    BodyPublisher(HttpURLConnection connection, Executor executor) {
+        this.connection = connection;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException(closed ? "Body is closed" : "Body already has subscriber"));
+            return;
+        }
+        BodySubscription current = new BodySubscription(subscriber);
+        subscription = current;
+        subscriber.onSubscribe(current);
+        if (closed) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * Close body - subscription is cancelled and connection is released, body can't be subscribed after close
+     */
+    void close() {
+        closed = true;
+        subscribed.set(true);
+        BodySubscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+        disconnect();
+    }
+
+    /* close connection, blocked read of drain loop is interrupted by exception */
+    private void disconnect() {
+        if ((connection != null) && disconnected.compareAndSet(false, true)) {
+            connection.disconnect();
+        }
+    }
+
+    private class BodySubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable badRequest;
+        private boolean done;
+        private InputStream in;
+
+        BodySubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("Requested " + n + " items, must be positive");
+            } else {
+                long current;
+                do {
+                    current = demand.get();
+                } while (!demand.compareAndSet(current, (current + n < 0) ? Long.MAX_VALUE : current + n));
+            }
+            schedule();
+        }
+
+        /* connection is closed right away - drain loop can be blocked in read */
+        @Override
+        public void cancel() {
+            cancelled = true;
+            disconnect();
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        /* drain loop - runs only in one thread at one time */
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                if (done) {
+                    return;
+                }
+                if (cancelled) {
+                    release();
+                    return;
+                }
+                if (badRequest != null) {
+                    release();
+                    subscriber.onError(badRequest);
+                    return;
+                }
+                while ((demand.get() > 0) && !cancelled) {
+                    ByteBuffer chunk;
+                    try {
+                        chunk = read();
+                    } catch (IOException e) {
+                        release();
+                        if (!cancelled) {
+                            subscriber.onError(e);
+                        }
+                        return;
+                    }
+                    if (chunk == null) {
+                        release();
+                        if (!cancelled) {
+                            subscriber.onComplete();
+                        }
+                        return;
+                    }
+                    demand.decrementAndGet();
+                    try {
+                        subscriber.onNext(chunk);
+                    } catch (RuntimeException e) {
+                        // broken subscriber - stop reading
+                        release();
+                        return;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        /* read next chunk, return null in the end of body */
+        private ByteBuffer read() throws IOException {
+            if (connection == null) {
+                return null;
+            }
+            if (in == null) {
+                try {
+                    in = connection.getInputStream();
+                } catch (IOException e) {
+                    // body of Http errors (404,500,etc)
+                    in = connection.getErrorStream();
+                    if (in == null) {
+                        if (connection.getResponseCode() >= 400) return null;
+                        throw e;
+                    }
+                }
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int size = in.read(buffer, 0, BUFFER_SIZE);
+            if (size == -1) {
+                return null;
+            }
+            return ByteBuffer.wrap(buffer, 0, size);
+        }
+
+        private void release() {
+            done = true;
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // connection is closed anyway
+                }
+            }
+            disconnect();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.iextrem.web.http.useragent;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of buffers for reading content. Buffers have sizes power of two from minBufferSize to maxBufferSize,
+ * free buffers are kept in several stripes for each size - thread takes and returns buffers to own stripe.
+ * Pool can be shared by several UserAgent
+ */
+public class BufferPool {
+    private static final int DEFAULT_MIN_BUFFER_SIZE = 4096;
+    private static final int DEFAULT_MAX_BUFFER_SIZE = 65536;
+    private static final int DEFAULT_MAX_FREE = 64;        // free buffers for each size in each stripe
+
+    private static final BufferPool DEFAULT = new BufferPool(DEFAULT_MIN_BUFFER_SIZE, DEFAULT_MAX_BUFFER_SIZE, false, DEFAULT_MAX_FREE);
+
+    private final int minBufferSize;
+    private final int maxBufferSize;
+    private final boolean direct;
+    private final int maxFree;
+    private final int minShift;
+    private final int stripeMask;
+    private final Queue<ByteBuffer>[][] free;           // [size class][stripe]
+    private final AtomicInteger[][] freeCount;
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    /**
+     * @param minBufferSize size of the smallest buffer, rounded up to power of two
+     * @param maxBufferSize size of the biggest buffer, rounded up to power of two
+     * @param direct true for direct buffers, false for heap buffers
+     * @param maxFree maximum free buffers kept for each size in each stripe
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(int minBufferSize, int maxBufferSize, boolean direct, int maxFree) {
+        if ((minBufferSize <= 0) || (maxBufferSize < minBufferSize)) {
+            throw new IllegalArgumentException("Wrong buffer sizes: " + minBufferSize + " - " + maxBufferSize);
+        }
+        this.minBufferSize = roundUp(minBufferSize);
+        this.maxBufferSize = roundUp(maxBufferSize);
+        this.direct = direct;
+        this.maxFree = maxFree;
+        this.minShift = Integer.numberOfTrailingZeros(this.minBufferSize);
+        int classes = Integer.numberOfTrailingZeros(this.maxBufferSize) - minShift + 1;
+        int stripes = roundUp(Runtime.getRuntime().availableProcessors());
+        this.stripeMask = stripes - 1;
+        free = new Queue[classes][stripes];
+        freeCount = new AtomicInteger[classes][stripes];
+        for (int i = 0; i < classes; i++) {
+            for (int j = 0; j < stripes; j++) {
+                free[i][j] = new ConcurrentLinkedQueue<>();
+                freeCount[i][j] = new AtomicInteger();
+            }
+        }
+    }
+
+    /**
+     * Pool with heap buffers 4Kb - 64Kb, used by UserAgent by default
+     * @return default pool
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Take buffer from pool or allocate new one
+     * @param size required size, buffer can be bigger, but not bigger than maxBufferSize
+     * @return cleared buffer
+     */
+    public ByteBuffer acquire(int size) {
+        int sizeClass = sizeClass(size);
+        int stripe = stripe();
+        ByteBuffer buffer = free[sizeClass][stripe].poll();
+        if (buffer != null) {
+            freeCount[sizeClass][stripe].decrementAndGet();
+            reused.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+        allocated.incrementAndGet();
+        int capacity = minBufferSize << sizeClass;
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Return buffer to pool, buffer must not be used after release
+     * @param buffer buffer from acquire
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if ((buffer.isDirect() != direct) || (Integer.bitCount(capacity) != 1)
+                || (capacity < minBufferSize) || (capacity > maxBufferSize)) {
+            return;
+        }
+        int sizeClass = Integer.numberOfTrailingZeros(capacity) - minShift;
+        int stripe = stripe();
+        if (freeCount[sizeClass][stripe].incrementAndGet() <= maxFree) {
+            free[sizeClass][stripe].offer(buffer);
+        } else {
+            freeCount[sizeClass][stripe].decrementAndGet();
+        }
+    }
+
+    /**
+     * @param size required size
+     * @return capacity of buffer which is taken by acquire for this size
+     */
+    public int capacityOf(int size) {
+        return minBufferSize << sizeClass(size);
+    }
+
+    public int getMinBufferSize() {
+        return minBufferSize;
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @return number buffers allocated by pool
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    /**
+     * @return number buffers taken from free buffers
+     */
+    public long getReused() {
+        return reused.get();
+    }
+
+    private int sizeClass(int size) {
+        if (size <= minBufferSize) return 0;
+        if (size >= maxBufferSize) return free.length - 1;
+        return Integer.numberOfTrailingZeros(roundUp(size)) - minShift;
+    }
+
+    private int stripe() {
+        return (int) Thread.currentThread().getId() & stripeMask;
+    }
+
+    private static int roundUp(int value) {
+        int highest = Integer.highestOneBit(value);
+        return (highest == value) ? value : highest << 1;
+    }
+}
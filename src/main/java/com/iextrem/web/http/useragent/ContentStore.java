@@ -0,0 +1,254 @@
+package com.iextrem.web.http.useragent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Store of content shared by responses - content is identified by SHA-256 digest computed while reading,
+ * responses with identical content keep one copy. Content is kept compressed (deflate)
+ * and is decompressed on access. Content is removed when last response is cleaned or collected by garbage collector.
+ * Memory of content is reserved from own memory budget of store - not from budget of response,
+ * so content kept for responses of several UserAgent isn't charged to one of them.
+ * Store can be shared by several UserAgent
+ */
+public class ContentStore {
+    private static final int DEFAULT_MIN_SIZE_COMPRESS = 256;
+
+    private final int compressionLevel;
+    private final int minSizeCompress;
+    private final Map<ByteBuffer, Entry> entries = new HashMap<>();
+    private volatile ResponseMemoryBudget memoryBudget;
+
+    private long hits;
+    private long misses;
+    private long storedBytes;           // bytes in memory - compressed content
+    private long contentBytes;          // bytes of unique content
+    private long referencedBytes;       // bytes of content of all responses
+
+    /**
+     * Store with fast compression
+     */
+    public ContentStore() {
+        this(Deflater.BEST_SPEED, DEFAULT_MIN_SIZE_COMPRESS);
+    }
+
+    /**
+     * @param compressionLevel level of compression 0-9
+     * @param minSizeCompress content smaller than this size isn't compressed
+     */
+    public ContentStore(int compressionLevel, int minSizeCompress) {
+        this.compressionLevel = compressionLevel;
+        this.minSizeCompress = minSizeCompress;
+    }
+
+    /**
+     * Set memory budget for content in store - budget can be shared with UserAgent to keep one limit.
+     * Content which doesn't fit to budget stays in response
+     * @param memoryBudget memory budget, null - without limit
+     */
+    public void setMemoryBudget(ResponseMemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return memory budget for content in store, null - without limit
+     */
+    public ResponseMemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Put content to store or take reference to existing identical content
+     * @param digest digest of content
+     * @param chunks content - chunks from position 0 to limit
+     * @param length length of content
+     * @return entry with content, must be released when response is cleaned, null if budget of store is exhausted
+     */
+    Entry put(byte[] digest, List<ByteBuffer> chunks, int length) {
+        ByteBuffer key = ByteBuffer.wrap(digest);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                entry.references++;
+                referencedBytes += entry.length;
+                return entry;
+            }
+        }
+        byte[] data = compress(chunks, length);
+        boolean compressed = data != null;
+        if (!compressed) {
+            data = copy(chunks, length);
+        }
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                // the same content was stored by other thread
+                hits++;
+            } else {
+                ResponseMemoryBudget budget = memoryBudget;
+                if ((budget != null) && !budget.tryReserve(data.length)) {
+                    return null;
+                }
+                misses++;
+                entry = new Entry(key, data, length, compressed, budget);
+                entries.put(key, entry);
+                storedBytes += data.length;
+                contentBytes += length;
+            }
+            entry.references++;
+            referencedBytes += entry.length;
+            return entry;
+        }
+    }
+
+    /**
+     * Release reference to content, content is removed after last reference
+     * @param entry entry from put
+     */
+    synchronized void release(Entry entry) {
+        referencedBytes -= entry.length;
+        if (--entry.references == 0) {
+            entries.remove(entry.key);
+            storedBytes -= entry.data.length;
+            contentBytes -= entry.length;
+            if (entry.budget != null) {
+                entry.budget.release(entry.data.length);
+            }
+        }
+    }
+
+    /**
+     * @return number stored contents which were found in store
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number stored contents which were new for store
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return part of stored contents which were found in store, from 0 to 1
+     */
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return (total == 0) ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return number unique contents in store
+     */
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    /**
+     * @return bytes used by content in memory - after compression
+     */
+    public synchronized long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * @return bytes of unique content before compression
+     */
+    public synchronized long getContentBytes() {
+        return contentBytes;
+    }
+
+    /**
+     * @return bytes of content of all responses which refer to store - memory without store
+     */
+    public synchronized long getReferencedBytes() {
+        return referencedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "entries = " + entries.size() + ", hits = " + hits + ", misses = " + misses
+                + ", stored = " + storedBytes + ", content = " + contentBytes + ", referenced = " + referencedBytes;
+    }
+
+    /* compressed content, null if content is small or can't be compressed */
+    private byte[] compress(List<ByteBuffer> chunks, int length) {
+        if ((length < minSizeCompress) || (compressionLevel == Deflater.NO_COMPRESSION)) {
+            return null;
+        }
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 4));
+            byte[] buffer = new byte[8192];
+            for (ByteBuffer chunk : chunks) {
+                deflater.setInput(chunk.duplicate());
+                while (!deflater.needsInput()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return (out.size() < length) ? out.toByteArray() : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] copy(List<ByteBuffer> chunks, int length) {
+        byte[] data = new byte[length];
+        int offset = 0;
+        for (ByteBuffer chunk : chunks) {
+            int size = chunk.limit();
+            chunk.duplicate().get(data, offset, size);
+            offset += size;
+        }
+        return data;
+    }
+
+    /**
+     * Content in store
+     */
+    static class Entry {
+        private final ByteBuffer key;
+        private final byte[] data;
+        private final int length;
+        private final boolean compressed;
+        private final ResponseMemoryBudget budget;      // budget which memory of data is reserved from
+        private int references;
+
+        Entry(ByteBuffer key, byte[] data, int length, boolean compressed, ResponseMemoryBudget budget) {
+            this.key = key;
+            this.data = data;
+            this.length = length;
+            this.compressed = compressed;
+            this.budget = budget;
+        }
+
+        /**
+         * @return length of content before compression
+         */
+        int getLength() {
+            return length;
+        }
+
+        /**
+         * @return stream with decompressed content
+         */
+        InputStream open() {
+            InputStream in = new ByteArrayInputStream(data);
+            return compressed ? new InflaterInputStream(in) : in;
+        }
+    }
+}
@@ -1,26 +1,39 @@
 package com.iextrem.web.http.useragent;
 
 import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
-public class HttpResponse {
+public class HttpResponse implements Closeable {
 
-    public enum Status {NO_ERROR, ERROR_4xx, ERROR_BAD_URL, ERROR_IO, ERROR_TIMEOUT, ERROR_MALFORMED_URL, ERROR_5xx}
-    private static final String CONTENT_TYPE = "Content-Type";
-    private static final String CONTENT_ENCODING = "Content-Encoding";
+    public enum Status {NO_ERROR, ERROR_4xx, ERROR_BAD_URL, ERROR_IO, ERROR_TIMEOUT, ERROR_MALFORMED_URL, ERROR_5xx, ERROR_MEMORY}
     private static final String GZIP = "gzip";
     private static final String DEFAULT_CHARSET = "utf-8";
+    private static final Cleaner CLEANER = Cleaner.create();
 
 
     private int code;
     private Status status;
     private String message;
     private String url;
-    private Map<String, List<String>> header;
-    private List<Byte> content;
+    private ResponseHeaders headers;
+    private List<ByteBuffer> content;       // chunks ready for read - position 0, limit = size of data
+    private int memoryLength;               // bytes of content in memory
+    private long memorySize;                // capacity of chunks in memory
+    private BufferPool bufferPool;          // chunks are returned to pool when content is cleaned
+    private volatile int generation;        // incremented when chunks are released - open streams fail
+    private Reservation reservation;        // memory reserved from budget
+    private File spillFile;                 // content over budget with policy SPILL
+    private OutputStream spillOut;
+    private long spillLength;
+    private ContentStore.Entry storedContent;   // content moved to store
+    private Cleaner.Cleanable storeReference;   // releases stored content when response is cleaned or unreachable
+    private InputStream storedIn;               // decompressed stored content for sequential reads
+    private long storedPosition;
 
     public HttpResponse() {
         content = new ArrayList<>();
@@ -36,25 +49,56 @@ public class HttpResponse {
      * @return content length
      */
     public int getContentLength() {
-        return content.size();
+        if (storedContent != null) return storedContent.getLength();
+        return (int) (memoryLength + spillLength);
     }
 
     /**
-     * Read content from inner storage
+     * Read content from inner storage. Content from store is decompressed once for sequential reads,
+     * read before previous position decompresses content from the start
      * @param buffer outer buffer for data
      * @param off offset from begin content data
      * @param len length retrieved data
      * @return number bytes was read from content
      */
     public int readContent(byte[] buffer, int off, int len) {
-        int size = content.size();
+        int size = getContentLength();
         if (off > size) return -1;
         if ( (off + len) > size) {
             len = size - off;
         }
         if (buffer.length < len) return -1;
-        for (int i = 0; i < len; i++) {
-            buffer[i] = content.get(off + i);
+        if (storedContent != null) {
+            try {
+                return readStored(buffer, off, len);
+            } catch (IOException e) {
+                e.printStackTrace();
+                closeStored();
+                return -1;
+            }
+        }
+        int i = 0;
+        int chunkOffset = 0;
+        for (ByteBuffer chunk : content) {
+            if (i == len) break;
+            int chunkLength = chunk.limit();
+            if (off + i < chunkOffset + chunkLength) {
+                ByteBuffer data = chunk.duplicate();
+                data.position(off + i - chunkOffset);
+                int n = Math.min(data.remaining(), len - i);
+                data.get(buffer, i, n);
+                i += n;
+            }
+            chunkOffset += chunkLength;
+        }
+        if (i < len) {
+            try (RandomAccessFile file = new RandomAccessFile(spillFile, "r")) {
+                file.seek(off + i - memoryLength);
+                file.readFully(buffer, i, len - i);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return -1;
+            }
         }
         return len;
     }
@@ -64,54 +108,293 @@ public class HttpResponse {
      * @return all content as byte[]
      */
     public byte[] getContent() {
-        int size = content.size();
+        int size = getContentLength();
         byte[] buffer = new byte[size];
-        for (int i = 0; i < size; i++) {
-            buffer[i] = content.get(i);
-        }
+        readContent(buffer, 0, size);
         return buffer;
     }
 
+    /**
+     * Get all content as stream without copy of content, content spilled to file is not loaded to memory.
+     * Stream over content in memory fails with IOException when content is cleaned - buffers are reused.
+     * Stream must not be used after content is cleaned
+     * @return stream with content
+     * @throws IOException if spilled content can't be read
+     */
+    public InputStream getContentAsStream() throws IOException {
+        if (storedContent != null) {
+            return storedContent.open();
+        }
+        InputStream in = new ChunksInputStream(this, new ArrayList<>(content));
+        if (spillFile != null) {
+            in = new SequenceInputStream(in, new BufferedInputStream(new FileInputStream(spillFile)));
+        }
+        return in;
+    }
+
     /**
      * Write buffer to content - add to the end
      * @param buffer buffer with data
      * @param length length data in buffer
-     * @return true if success
+     * @return true if success, false if memory budget is exhausted
      */
     public boolean writeContent(byte[] buffer, int length) {
         if (buffer.length < length) return false;
-        for (int i = 0; i < length; i++) {
-            content.add(buffer[i]);
+        if (!restoreContent()) return false;
+        if (!reserveContent(length)) return false;
+        return writeContent(ByteBuffer.wrap(buffer, 0, length), true);
+    }
+
+    /**
+     * Add chunk to the end of content without copy, memory for chunk capacity must be reserved before.
+     * Chunk from pool must start from position 0 - flipped after read.
+     * Chunk from buffer pool is returned to pool when content is cleaned or spilled
+     * @param chunk chunk with data between position and limit
+     * @param copy true if chunk must be copied - it is owned by caller
+     * @return true if success
+     */
+    boolean writeContent(ByteBuffer chunk, boolean copy) {
+        int length = chunk.remaining();
+        if (spillOut != null) {
+            try {
+                if (chunk.hasArray()) {
+                    spillOut.write(chunk.array(), chunk.arrayOffset() + chunk.position(), length);
+                } else {
+                    byte[] data = new byte[length];
+                    chunk.duplicate().get(data);
+                    spillOut.write(data);
+                }
+                spillLength += length;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            } finally {
+                if (!copy) releaseChunk(chunk);
+            }
+            return true;
+        }
+        if (length == 0) {
+            if (!copy) releaseChunk(chunk);
+            return true;
         }
+        if (copy) {
+            ByteBuffer data = ByteBuffer.allocate(length);
+            data.put(chunk.duplicate());
+            data.flip();
+            chunk = data;
+        } else if (chunk.position() > 0) {
+            // chunks are read from position 0
+            chunk = chunk.slice();
+        }
+        content.add(chunk);
+        memoryLength += length;
+        memorySize += chunk.capacity();
         return true;
     }
 
     /**
-     * Get header field with key
+     * Set buffer pool for chunks of content
+     * @param bufferPool pool which chunks are taken from
+     */
+    void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    private void releaseChunk(ByteBuffer chunk) {
+        if (bufferPool != null) {
+            bufferPool.release(chunk);
+        }
+    }
+
+    /**
+     * Move content to store - identical content of other responses is shared, content is compressed.
+     * Buffers are returned to pool and memory is returned to budget, memory of new content in store is reserved
+     * from budget of store. Spilled content and content which doesn't fit to budget of store isn't moved
+     * @param store store of content
+     * @param digest digest of content
+     */
+    void storeContent(ContentStore store, byte[] digest) {
+        if ((spillFile != null) || (storedContent != null)) return;
+        storedContent = store.put(digest, content, memoryLength);
+        if (storedContent == null) return;
+        storeReference = CLEANER.register(this, new StoreReference(store, storedContent));
+        generation++;
+        for (ByteBuffer chunk : content) {
+            releaseChunk(chunk);
+        }
+        content.clear();
+        memoryLength = 0;
+        memorySize = 0;
+    }
+
+    /* take content back from store before it is changed */
+    private boolean restoreContent() {
+        if (storedContent == null) return true;
+        byte[] data = new byte[storedContent.getLength()];
+        if (readContent(data, 0, data.length) != data.length) return false;
+        releaseStored();
+        if (!reserveContent(data.length)) return false;
+        return writeContent(ByteBuffer.wrap(data), false);
+    }
+
+    /* read from stored content, sequential read continues from position of previous read */
+    private int readStored(byte[] buffer, int off, int len) throws IOException {
+        if ((storedIn == null) || (off < storedPosition)) {
+            closeStored();
+            storedIn = storedContent.open();
+            storedPosition = 0;
+        }
+        int size = readFully(storedIn, off - storedPosition, buffer, len);
+        if (size == -1) {
+            closeStored();
+            return -1;
+        }
+        storedPosition = off + size;
+        return size;
+    }
+
+    private void closeStored() {
+        if (storedIn != null) {
+            try {
+                storedIn.close();
+            } catch (IOException e) {
+                // stream over memory
+            }
+            storedIn = null;
+        }
+    }
+
+    /* return reference to store */
+    private void releaseStored() {
+        closeStored();
+        storeReference.clean();
+        storeReference = null;
+        storedContent = null;
+    }
+
+    /* read len bytes from offset off of stream, return number read bytes */
+    private static int readFully(InputStream in, long off, byte[] buffer, int len) throws IOException {
+        while (off > 0) {
+            long skipped = in.skip(off);
+            if (skipped <= 0) {
+                if (in.read() == -1) return -1;
+                skipped = 1;
+            }
+            off -= skipped;
+        }
+        int i = 0;
+        while (i < len) {
+            int size = in.read(buffer, i, len - i);
+            if (size == -1) break;
+            i += size;
+        }
+        return i;
+    }
+
+    /**
+     * Set memory budget for content, content reserves memory from budget before it is stored.
+     * Reserved memory is returned to budget by cleanContent or when response is unreachable
+     * @param budget memory budget, null - without limit
+     */
+    void setMemoryBudget(ResponseMemoryBudget budget) {
+        if (reservation != null) {
+            reservation.run();
+        }
+        reservation = (budget == null) ? null : new Reservation(budget);
+        if (reservation != null) {
+            CLEANER.register(this, reservation);
+        }
+    }
+
+    /* reserve memory for next length bytes of content without waiting */
+    boolean reserveContent(long length) {
+        return reserveContent(length, false);
+    }
+
+    /* reserve memory for next length bytes of content, when budget is exhausted with policy SPILL start spill to file.
+       Before waiting unused reserved memory is returned - waiting response holds only its content */
+    boolean reserveContent(long length, boolean wait) {
+        if ((reservation == null) || (spillOut != null)) return true;
+        ResponseMemoryBudget budget = reservation.budget;
+        long need = memorySize + length - reservation.get();
+        if (need <= 0) return true;
+        if (wait) {
+            reservation.releaseTo(memorySize);
+            need = length;
+            try {
+                if (budget.reserve(need)) {
+                    reservation.add(need);
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        } else if (budget.tryReserve(need)) {
+            reservation.add(need);
+            return true;
+        }
+        if (budget.getPolicy() != ResponseMemoryBudget.Policy.SPILL) return false;
+        try {
+            spillFile = File.createTempFile("response", ".spill");
+            spillFile.deleteOnExit();
+            spillOut = new BufferedOutputStream(new FileOutputStream(spillFile));
+            budget.spilled();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /* content is complete - close spill file and return unused reserved memory to budget */
+    void finishContent() {
+        if (spillOut != null) {
+            try {
+                spillOut.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            spillOut = null;
+        }
+        if (reservation != null) {
+            reservation.releaseTo(memorySize);
+        }
+    }
+
+    /**
+     * Get header field with key, key is case-insensitive
      * @param key key for retrieve value
-     * @return List string values
+     * @return List string values, null if there is no field, empty list if header wasn't received
      */
     public List<String> getHeaderField(String key) {
-        if (header != null) {
-            return header.get(key);
+        if (headers != null) {
+            List<String> values = headers.getAll(key);
+            return values.isEmpty() ? null : values;
         }
         return new ArrayList<>();
     }
 
     /**
-     * Get header field with key - single string
+     * Get header field with key - single string, key is case-insensitive
      * @param key key for retrieve value
      * @return first string value
      */
     public String getHeaderFieldOneValue(String key) {
-        String value = "";
-        if (header != null) {
-            List<String> list = header.get(key);
-            if ((list != null) && (list.size() > 0)) {
-                value = list.get(0);
-            }
+        String value = null;
+        if (headers != null) {
+            value = headers.getFirst(key);
         }
-        return value;
+        return (value == null) ? "" : value;
+    }
+
+    /**
+     * Get header with case-insensitive search and parsed common fields
+     * @return header from response, null if header wasn't received
+     * @see ResponseHeaders
+     */
+    public ResponseHeaders getHeaders() {
+        return headers;
     }
 
     /**
@@ -122,10 +405,8 @@ public class HttpResponse {
     public String getAsText() throws UnsupportedEncodingException {
         String charset = DEFAULT_CHARSET;
         // get charset from header
-        String contentType = getHeaderFieldOneValue(CONTENT_TYPE);
-        String[] split = contentType.split("=");
-        if (split.length > 1) {
-            charset = split[1];
+        if ((headers != null) && (headers.getCharset() != null)) {
+            charset = headers.getCharset();
         }
         return getAsText(charset, 0);
     }
@@ -148,16 +429,12 @@ public class HttpResponse {
      * @throws UnsupportedEncodingException
      */
     public String getAsText(String charset, int length) throws UnsupportedEncodingException {
-        String contentEncoding = getHeaderFieldOneValue(CONTENT_ENCODING);
+        String contentEncoding = getHeaderFieldOneValue(ResponseHeaders.CONTENT_ENCODING);
         StringBuilder text = new StringBuilder();
-        byte[] buffer = new byte[content.size()];
-        for (int i = 0; i < content.size(); i++) {
-            buffer[i] = content.get(i);
-        }
         InputStream in;
         BufferedReader bf;
         try {
-            in = new ByteArrayInputStream(buffer);
+            in = getContentAsStream();
             if (GZIP.equalsIgnoreCase(contentEncoding)) {
                 in = new GZIPInputStream(in);
             }
@@ -182,10 +459,33 @@ public class HttpResponse {
     }
 
     /**
-     * Clean content
+     * Clean content, buffers are returned to pool, memory is returned to budget, spilled content is deleted
      */
     public void cleanContent(){
+        if (storedContent != null) {
+            releaseStored();
+        }
+        generation++;
+        for (ByteBuffer chunk : content) {
+            releaseChunk(chunk);
+        }
         content.clear();
+        memoryLength = 0;
+        memorySize = 0;
+        finishContent();
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+            spillLength = 0;
+        }
+    }
+
+    /**
+     * Close response - clean content
+     */
+    @Override
+    public void close() {
+        cleanContent();
     }
 
     /**
@@ -270,10 +570,10 @@ public class HttpResponse {
 
     /**
      * Get header from response
-     * @return header from response
+     * @return copy of header from response, null if header wasn't received
      */
     public Map<String, List<String>> getHeader() {
-        return header;
+        return (headers == null) ? null : headers.toMap();
     }
 
     /**
@@ -281,7 +581,7 @@ public class HttpResponse {
      * @param header  header from response
      */
     public void setHeader(Map<String, List<String>> header) {
-        this.header = header;
+        this.headers = (header == null) ? null : new ResponseHeaders(header);
     }
 
     /**
@@ -290,6 +590,7 @@ public class HttpResponse {
      */
     public String headerToString () {
         StringBuilder str = new StringBuilder();
+        Map<String, List<String>> header = getHeader();
         if (header != null ) {
             for (Map.Entry<String, List<String>> entry : header.entrySet()) {
                 String key = entry.getKey();
@@ -305,4 +606,102 @@ public class HttpResponse {
         return str.toString();
     }
 
+    /* memory reserved from budget - returned by cleaner when response is unreachable, must not refer to response */
+    private static class Reservation implements Runnable {
+        private final ResponseMemoryBudget budget;
+        private long reserved;
+
+        Reservation(ResponseMemoryBudget budget) {
+            this.budget = budget;
+        }
+
+        synchronized long get() {
+            return reserved;
+        }
+
+        synchronized void add(long bytes) {
+            reserved += bytes;
+        }
+
+        /* return memory over keep bytes to budget */
+        synchronized void releaseTo(long keep) {
+            if (reserved > keep) {
+                budget.release(reserved - keep);
+                reserved = keep;
+            }
+        }
+
+        @Override
+        public void run() {
+            releaseTo(0);
+        }
+    }
+
+    /* reference of response to stored content - released by cleaner when response is unreachable, must not refer to response */
+    private static class StoreReference implements Runnable {
+        private final ContentStore store;
+        private final ContentStore.Entry entry;
+
+        StoreReference(ContentStore store, ContentStore.Entry entry) {
+            this.store = store;
+            this.entry = entry;
+        }
+
+        @Override
+        public void run() {
+            store.release(entry);
+        }
+    }
+
+    /* stream over chunks of content */
+    private static class ChunksInputStream extends InputStream {
+        private final HttpResponse response;
+        private final int generation;
+        private final List<ByteBuffer> chunks;
+        private int index;
+        private ByteBuffer current;
+
+        ChunksInputStream(HttpResponse response, List<ByteBuffer> chunks) {
+            this.response = response;
+            this.generation = response.generation;
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() throws IOException {
+            ByteBuffer chunk = next();
+            if (chunk == null) return -1;
+            int b = chunk.get() & 0xff;
+            checkGeneration();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            ByteBuffer chunk = next();
+            if (chunk == null) return -1;
+            len = Math.min(len, chunk.remaining());
+            chunk.get(b, off, len);
+            // chunk could be released while it was copied
+            checkGeneration();
+            return len;
+        }
+
+        private void checkGeneration() throws IOException {
+            if (response.generation != generation) {
+                throw new IOException("Content of response is cleaned");
+            }
+        }
+
+        /* current chunk with data or null in the end */
+        private ByteBuffer next() throws IOException {
+            checkGeneration();
+            while ((current == null) || !current.hasRemaining()) {
+                if (index == chunks.size()) return null;
+                current = chunks.get(index++).duplicate();
+            }
+            return current;
+        }
+    }
 }
@@ -0,0 +1,119 @@
+package com.iextrem.web.http.useragent;
+
+/**
+ * Address monitored by UrlMonitor - validators of last response, digest of content and current poll interval.
+ * Interval is decreased when content is changed and increased when content isn't changed
+ */
+public class MonitoredUrl {
+    private final String url;
+    private final long interval;
+    private final long minInterval;
+    private final long maxInterval;
+
+    private volatile long currentInterval;
+    private volatile String eTag;
+    private volatile String lastModified;
+    private volatile byte[] digest;
+    private volatile long lastChecked;
+    private volatile long lastChanged;
+    private volatile long changes;
+    private volatile boolean removed;
+
+    MonitoredUrl(String url, long interval, long minInterval, long maxInterval) {
+        this.url = url;
+        this.interval = interval;
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.currentInterval = interval;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return poll interval set by user in milliseconds
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return current poll interval in milliseconds
+     */
+    public long getCurrentInterval() {
+        return currentInterval;
+    }
+
+    /**
+     * @return ETag of last response, null if absent
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * @return Last-Modified of last response, null if absent
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return time of last check in milliseconds, 0 - wasn't checked
+     */
+    public long getLastChecked() {
+        return lastChecked;
+    }
+
+    /**
+     * @return time of last change in milliseconds, 0 - wasn't changed
+     */
+    public long getLastChanged() {
+        return lastChanged;
+    }
+
+    /**
+     * @return number changes of content
+     */
+    public long getChanges() {
+        return changes;
+    }
+
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    byte[] getDigest() {
+        return digest;
+    }
+
+    void setRemoved() {
+        removed = true;
+    }
+
+    /* response with content is received - validators and digest of this response replace previous, absent are null */
+    void checked(long time, String eTag, String lastModified, byte[] digest) {
+        lastChecked = time;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.digest = digest;
+    }
+
+    /* response 304 is received - validators and digest are kept */
+    void notModified(long time) {
+        lastChecked = time;
+    }
+
+    /* content is changed - poll more often */
+    void changed(long time) {
+        lastChanged = time;
+        changes++;
+        currentInterval = Math.max(minInterval, currentInterval / 2);
+    }
+
+    /* content isn't changed - poll less often */
+    void unchanged() {
+        currentInterval = Math.min(maxInterval, currentInterval + currentInterval / 2);
+    }
+}
@@ -0,0 +1,401 @@
+package com.iextrem.web.http.useragent;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Header of response - names and values are kept in flat arrays, search of name is case-insensitive.
+ * Well-known names are shared, common fields are parsed on first access
+ */
+public class ResponseHeaders {
+    public static final String CONTENT_TYPE = "Content-Type";
+    public static final String CONTENT_LENGTH = "Content-Length";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String CACHE_CONTROL = "Cache-Control";
+    public static final String DATE = "Date";
+    public static final String EXPIRES = "Expires";
+    public static final String LAST_MODIFIED = "Last-Modified";
+    public static final String ETAG = "ETag";
+    public static final String LOCATION = "Location";
+
+    private static final String[] WELL_KNOWN = {CONTENT_TYPE, CONTENT_LENGTH, CONTENT_ENCODING, CACHE_CONTROL,
+            DATE, EXPIRES, LAST_MODIFIED, ETAG, LOCATION, "Accept-Ranges", "Age", "Connection", "Content-Disposition",
+            "Content-Language", "Content-Range", "Keep-Alive", "Pragma", "Server", "Set-Cookie", "Transfer-Encoding",
+            "Vary", "Via", "WWW-Authenticate", "X-Powered-By"};
+    private static final Map<String, String> NAMES = new HashMap<>();
+
+    static {
+        for (String name : WELL_KNOWN) {
+            NAMES.put(name.toLowerCase(), name);
+        }
+    }
+
+    private static final int PARSED_CONTENT_TYPE = 1;
+    private static final int PARSED_CACHE_CONTROL = 2;
+    private static final int PARSED_CONTENT_LENGTH = 4;
+    private static final int PARSED_DATE = 8;
+    private static final int PARSED_LAST_MODIFIED = 16;
+    private static final int PARSED_EXPIRES = 32;
+    private static final AtomicIntegerFieldUpdater<ResponseHeaders> PARSED =
+            AtomicIntegerFieldUpdater.newUpdater(ResponseHeaders.class, "parsed");
+
+    private final String[] names;       // name for each value, names are repeated for several values
+    private final String[] values;
+    private final int[] next;           // next index with the same name, -1 - last
+    private final int[] table;          // hash table: first index for name, -1 - empty
+    private final int mask;
+    private final List<String> statusLine;  // values with null key
+
+    private volatile int parsed;            // flags of parsed fields, final values are written before flag
+    private String mimeType;
+    private String charset;
+    private long maxAge;
+    private long contentLength;
+    private long date;
+    private long lastModified;
+    private long expires;
+    private boolean noCache;
+    private boolean noStore;
+
+    /**
+     * @param header header from HttpURLConnection, entry with null key (status line) is kept apart from fields
+     */
+    public ResponseHeaders(Map<String, List<String>> header) {
+        List<String> status = null;
+        int size = 0;
+        for (Map.Entry<String, List<String>> entry : header.entrySet()) {
+            if (entry.getKey() == null) {
+                status = entry.getValue();
+            } else if (entry.getValue() != null) {
+                size += entry.getValue().size();
+            }
+        }
+        statusLine = status;
+        names = new String[size];
+        values = new String[size];
+        next = new int[size];
+        int tableSize = Integer.highestOneBit(Math.max(size, 1) * 2) * 2;
+        table = new int[tableSize];
+        mask = tableSize - 1;
+        Arrays.fill(table, -1);
+        int[] last = new int[tableSize];
+        int index = 0;
+        for (Map.Entry<String, List<String>> entry : header.entrySet()) {
+            if ((entry.getKey() == null) || (entry.getValue() == null)) continue;
+            String name = intern(entry.getKey());
+            for (String value : entry.getValue()) {
+                names[index] = name;
+                values[index] = value;
+                next[index] = -1;
+                int slot = slot(name);
+                if (table[slot] == -1) {
+                    table[slot] = index;
+                } else {
+                    next[last[slot]] = index;
+                }
+                last[slot] = index;
+                index++;
+            }
+        }
+    }
+
+    /**
+     * Get all values for name
+     * @param name name of field, case-insensitive
+     * @return values, empty list if there is no field
+     */
+    public List<String> getAll(String name) {
+        int index = first(name);
+        if (index == -1) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>(1);
+        for (; index != -1; index = next[index]) {
+            result.add(values[index]);
+        }
+        return result;
+    }
+
+    /**
+     * Get first value for name
+     * @param name name of field, case-insensitive
+     * @return first value or null if there is no field
+     */
+    public String getFirst(String name) {
+        int index = first(name);
+        return (index == -1) ? null : values[index];
+    }
+
+    /**
+     * @param name name of field, case-insensitive
+     * @return true if header contains field
+     */
+    public boolean contains(String name) {
+        return first(name) != -1;
+    }
+
+    /**
+     * @return number of values in header
+     */
+    public int size() {
+        return values.length;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return value of Content-Length, -1 if absent or wrong
+     */
+    public long getContentLength() {
+        if ((parsed & PARSED_CONTENT_LENGTH) == 0) {
+            long length = -1;
+            String value = getFirst(CONTENT_LENGTH);
+            if (value != null) {
+                try {
+                    length = Long.parseLong(value.trim());
+                } catch (NumberFormatException e) {
+                    // wrong length is ignored
+                }
+            }
+            contentLength = length;
+            markParsed(PARSED_CONTENT_LENGTH);
+        }
+        return contentLength;
+    }
+
+    /**
+     * @return mime type from Content-Type in lower case without parameters, null if absent
+     */
+    public String getContentType() {
+        parseContentType();
+        return mimeType;
+    }
+
+    /**
+     * @return charset from Content-Type, null if absent
+     */
+    public String getCharset() {
+        parseContentType();
+        return charset;
+    }
+
+    /**
+     * @return value of Content-Encoding, null if absent
+     */
+    public String getContentEncoding() {
+        return getFirst(CONTENT_ENCODING);
+    }
+
+    /**
+     * @return value of ETag, null if absent
+     */
+    public String getETag() {
+        return getFirst(ETAG);
+    }
+
+    /**
+     * @return value of Date in milliseconds, -1 if absent or wrong
+     */
+    public long getDate() {
+        if ((parsed & PARSED_DATE) == 0) {
+            date = getDate(DATE);
+            markParsed(PARSED_DATE);
+        }
+        return date;
+    }
+
+    /**
+     * @return value of Last-Modified in milliseconds, -1 if absent or wrong
+     */
+    public long getLastModified() {
+        if ((parsed & PARSED_LAST_MODIFIED) == 0) {
+            lastModified = getDate(LAST_MODIFIED);
+            markParsed(PARSED_LAST_MODIFIED);
+        }
+        return lastModified;
+    }
+
+    /**
+     * @return value of Expires in milliseconds, -1 if absent or wrong
+     */
+    public long getExpires() {
+        if ((parsed & PARSED_EXPIRES) == 0) {
+            expires = getDate(EXPIRES);
+            markParsed(PARSED_EXPIRES);
+        }
+        return expires;
+    }
+
+    /**
+     * Get field with date in RFC 1123 format
+     * @param name name of field, case-insensitive
+     * @return date in milliseconds, -1 if absent or wrong
+     */
+    public long getDate(String name) {
+        String value = getFirst(name);
+        if (value == null) return -1;
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return max-age from Cache-Control in seconds, -1 if absent
+     */
+    public long getMaxAge() {
+        parseCacheControl();
+        return maxAge;
+    }
+
+    /**
+     * @return true if Cache-Control contains no-cache
+     */
+    public boolean isNoCache() {
+        parseCacheControl();
+        return noCache;
+    }
+
+    /**
+     * @return true if Cache-Control contains no-store
+     */
+    public boolean isNoStore() {
+        parseCacheControl();
+        return noStore;
+    }
+
+    /**
+     * @return status line, null if absent
+     */
+    public String getStatusLine() {
+        return ((statusLine == null) || statusLine.isEmpty()) ? null : statusLine.get(0);
+    }
+
+    /**
+     * @return header as map like from HttpURLConnection - status line with null key,
+     * names of well-known fields are in canonical case
+     */
+    public Map<String, List<String>> toMap() {
+        Map<String, List<String>> map = new HashMap<>();
+        if (statusLine != null) {
+            map.put(null, new ArrayList<>(statusLine));
+        }
+        for (int i = 0; i < values.length; i++) {
+            List<String> list = map.get(names[i]);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                map.put(names[i], list);
+            }
+            list.add(values[i]);
+        }
+        return map;
+    }
+
+    private void parseContentType() {
+        if ((parsed & PARSED_CONTENT_TYPE) != 0) return;
+        String value = getFirst(CONTENT_TYPE);
+        String type = null;
+        String typeCharset = null;
+        if (value != null) {
+            String[] split = value.split(";");
+            type = split[0].trim().toLowerCase();
+            for (int i = 1; i < split.length; i++) {
+                String parameter = split[i].trim();
+                if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+                    typeCharset = unquote(parameter.substring(8).trim());
+                }
+            }
+        }
+        mimeType = type;
+        charset = typeCharset;
+        markParsed(PARSED_CONTENT_TYPE);
+    }
+
+    private void parseCacheControl() {
+        if ((parsed & PARSED_CACHE_CONTROL) != 0) return;
+        boolean cache = false;
+        boolean store = false;
+        long age = -1;
+        for (String value : getAll(CACHE_CONTROL)) {
+            for (String directive : value.split(",")) {
+                directive = directive.trim();
+                if (directive.equalsIgnoreCase("no-cache")) {
+                    cache = true;
+                } else if (directive.equalsIgnoreCase("no-store")) {
+                    store = true;
+                } else if (directive.regionMatches(true, 0, "max-age=", 0, 8)) {
+                    try {
+                        age = Long.parseLong(unquote(directive.substring(8).trim()));
+                    } catch (NumberFormatException e) {
+                        // wrong max-age is ignored
+                    }
+                }
+            }
+        }
+        noCache = cache;
+        noStore = store;
+        maxAge = age;
+        markParsed(PARSED_CACHE_CONTROL);
+    }
+
+    /* set flag after values of field - concurrent parse writes the same values, flags of other fields are kept */
+    private void markParsed(int flag) {
+        int current;
+        do {
+            current = parsed;
+        } while (!PARSED.compareAndSet(this, current, current | flag));
+    }
+
+    /* first index for name, -1 if absent */
+    private int first(String name) {
+        if (name == null) return -1;
+        return table[slot(name)];
+    }
+
+    /* slot in hash table with name or empty slot for it - linear probing, table is at least half empty */
+    private int slot(String name) {
+        int slot = hash(name) & mask;
+        while ((table[slot] != -1) && !names[table[slot]].equalsIgnoreCase(name)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /* case-insensitive hash */
+    private static int hash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c >= 'A') && (c <= 'Z')) c += 'a' - 'A';
+            hash = 31 * hash + c;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static String intern(String name) {
+        String known = NAMES.get(name.toLowerCase());
+        return (known == null) ? name : known;
+    }
+
+    private static String unquote(String value) {
+        if ((value.length() > 1) && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,166 @@
+package com.iextrem.web.http.useragent;
+
+/**
+ * Limit for memory used by content of responses. Budget can be shared by several UserAgent.
+ * Content reserves memory before it is stored, memory is returned when content is cleaned
+ * or when response is collected by garbage collector.
+ * When budget is exhausted response waits, fails or spills content to temporary file - see Policy.
+ * Response waits only while it holds no memory - before request and before content of known length is read,
+ * content of unknown length which doesn't fit to budget fails with policy WAIT.
+ * Response which is dropped without clean holds memory until garbage collector finds it -
+ * till then new requests fail with policy FAIL, so responses should be closed
+ */
+public class ResponseMemoryBudget {
+
+    public enum Policy {WAIT, FAIL, SPILL}
+
+    private static final long DEFAULT_WAIT_TIMEOUT = 10000;      // 10s
+
+    private final long capacity;
+    private final Policy policy;
+    private long waitTimeout;
+
+    private long used;
+    private long peakUsed;
+    private int waiting;
+    private long rejected;
+    private long spilled;
+
+    /**
+     * @param capacity maximum bytes for content of all responses
+     * @param policy what to do when budget is exhausted
+     */
+    public ResponseMemoryBudget(long capacity, Policy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.waitTimeout = DEFAULT_WAIT_TIMEOUT;
+    }
+
+    /**
+     * Reserve memory for content. With policy WAIT waits until memory is released or timeout expires
+     * @param bytes number bytes for reserve
+     * @return true if memory is reserved
+     * @throws InterruptedException if thread is interrupted while waiting
+     */
+    public synchronized boolean reserve(long bytes) throws InterruptedException {
+        if (bytes > capacity) {
+            rejected++;
+            return false;
+        }
+        if ((used + bytes > capacity) && (policy == Policy.WAIT)) {
+            long deadline = System.currentTimeMillis() + waitTimeout;
+            waiting++;
+            try {
+                long left = waitTimeout;
+                while ((used + bytes > capacity) && (left > 0)) {
+                    wait(left);
+                    left = deadline - System.currentTimeMillis();
+                }
+            } finally {
+                waiting--;
+            }
+        }
+        if (used + bytes > capacity) {
+            rejected++;
+            return false;
+        }
+        used += bytes;
+        peakUsed = Math.max(peakUsed, used);
+        return true;
+    }
+
+    /**
+     * Reserve memory for content without waiting
+     * @param bytes number bytes for reserve
+     * @return true if memory is reserved
+     */
+    public synchronized boolean tryReserve(long bytes) {
+        if (used + bytes > capacity) {
+            rejected++;
+            return false;
+        }
+        used += bytes;
+        peakUsed = Math.max(peakUsed, used);
+        return true;
+    }
+
+    /**
+     * Return memory to budget
+     * @param bytes number bytes for release
+     */
+    public synchronized void release(long bytes) {
+        used = Math.max(0, used - bytes);
+        notifyAll();
+    }
+
+    synchronized void spilled() {
+        spilled++;
+    }
+
+    /**
+     * Set maximum time for waiting memory with policy WAIT
+     * @param waitTimeout timeout in milliseconds
+     */
+    public synchronized void setWaitTimeout(long waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return bytes reserved now
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /**
+     * @return bytes available for reserve
+     */
+    public synchronized long getAvailable() {
+        return capacity - used;
+    }
+
+    /**
+     * @return maximum bytes reserved at one time
+     */
+    public synchronized long getPeakUsed() {
+        return peakUsed;
+    }
+
+    /**
+     * @return number threads waiting for memory now
+     */
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * @return number reserves which were refused
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return number responses which content was spilled to file
+     */
+    public synchronized long getSpilled() {
+        return spilled;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "used = " + used + " of " + capacity + ", peak = " + peakUsed + ", waiting = " + waiting
+                + ", rejected = " + rejected + ", spilled = " + spilled;
+    }
+}
@@ -0,0 +1,357 @@
+package com.iextrem.web.http.useragent;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Download big file with several parallel connections - each connection requests own byte range
+ * (HTTP Range header) and writes it to own offset of preallocated file.
+ * Progress is saved to file "name.segments", next start with the same file resume download.
+ * All connections are made by UserAgent - proxy, cookies and request properties are used,
+ * except Accept-Encoding - length and ranges must refer to content as it is written to file.
+ */
+class SegmentedDownload {
+    static final String STATE_SUFFIX = ".segments";
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final long MIN_SEGMENT_SIZE = 1048576;    // 1Mb
+    private static final int MAX_ATTEMPTS = 3;                // attempts for each segment
+
+    private final UserAgent userAgent;
+    private final String url;
+    private final File file;
+    private final File stateFile;
+    private final int segmentsMax;
+
+    private long length;
+    private String validator;
+    private long[] starts;
+    private long[] ends;
+    private AtomicLongArray done;
+
+    SegmentedDownload(UserAgent userAgent, String url, File file, int segmentsMax) {
+        this.userAgent = userAgent;
+        this.url = url;
+        this.file = file;
+        this.stateFile = new File(file.getPath() + STATE_SUFFIX);
+        this.segmentsMax = Math.max(1, segmentsMax);
+    }
+
+    /**
+     * Execute download
+     * @return response with code, header and status of download, content is written to file
+     */
+    HttpResponse execute() {
+        HttpResponse httpResponse = new HttpResponse(url);
+        try {
+            boolean ranges = probe(httpResponse);
+            if (!httpResponse.isNoError()) {
+                return httpResponse;
+            }
+            if (!ranges) {
+                downloadSingle();
+            } else {
+                downloadSegments();
+            }
+            stateFile.delete();
+            httpResponse.setStatus(HttpResponse.Status.NO_ERROR);
+        } catch (SocketTimeoutException ex) {
+            httpResponse.setStatus(HttpResponse.Status.ERROR_TIMEOUT);
+            httpResponse.setMessage(ex.getMessage());
+        } catch (IllegalArgumentException ex) {
+            httpResponse.setStatus(HttpResponse.Status.ERROR_BAD_URL);
+        } catch (MalformedURLException ex) {
+            httpResponse.setStatus(HttpResponse.Status.ERROR_MALFORMED_URL);
+        } catch (IOException ex) {
+            httpResponse.setStatus(HttpResponse.Status.ERROR_IO);
+            httpResponse.setMessage(ex.getMessage());
+        }
+        return httpResponse;
+    }
+
+    /* HEAD request - get length and check support of ranges, return true if ranges can be used */
+    private boolean probe(HttpResponse httpResponse) throws IOException {
+        HttpURLConnection connection = openConnection();
+        try {
+            connection.setRequestMethod("HEAD");
+            httpResponse.setCode(userAgent.connect(connection));
+            httpResponse.setHeader(connection.getHeaderFields());
+            httpResponse.setMessage(connection.getResponseMessage());
+            length = connection.getContentLengthLong();
+            validator = validatorOf(connection);
+            String acceptRanges = connection.getHeaderField("Accept-Ranges");
+            if (httpResponse.isNoError() && (length > 0) && "bytes".equalsIgnoreCase(acceptRanges)) {
+                return true;
+            }
+        } finally {
+            connection.disconnect();
+        }
+        // HEAD is not allowed or server doesn't announce ranges - ask first byte
+        connection = openConnection();
+        try {
+            connection.setRequestProperty("Range", "bytes=0-0");
+            int code = userAgent.connect(connection);
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                long[] range = parseContentRange(connection.getHeaderField("Content-Range"));
+                if ((range != null) && (range[2] > 0)) {
+                    length = range[2];
+                    validator = validatorOf(connection);
+                    httpResponse.setCode(HttpURLConnection.HTTP_OK);
+                    httpResponse.setHeader(connection.getHeaderFields());
+                    return true;
+                }
+            } else if (!httpResponse.isNoError()) {
+                httpResponse.setCode(code);
+                httpResponse.setHeader(connection.getHeaderFields());
+                httpResponse.setMessage(connection.getResponseMessage());
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return false;
+    }
+
+    /* server doesn't support ranges - one connection, no resume */
+    private void downloadSingle() throws IOException {
+        stateFile.delete();
+        HttpURLConnection connection = openConnection();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            userAgent.connect(connection);
+            InputStream in = connection.getInputStream();
+            long position = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int size;
+            while ((size = in.read(buffer)) != -1) {
+                position += write(channel, buffer, size, position);
+            }
+            in.close();
+            if ((length > 0) && (position != length)) {
+                throw new IOException("Downloaded " + position + " bytes, expected " + length);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void downloadSegments() throws IOException {
+        if (!loadState()) {
+            split();
+        }
+        saveState();
+        ExecutorService executor = Executors.newFixedThreadPool(starts.length);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             final FileChannel channel = raf.getChannel()) {
+            if (channel.size() != length) {
+                raf.setLength(length);
+            }
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < starts.length; i++) {
+                final int segment = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        downloadSegment(channel, segment);
+                        return null;
+                    }
+                }));
+            }
+            IOException error = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Download interrupted");
+                }
+            }
+            saveState();
+            if (error != null) {
+                throw error;
+            }
+            channel.force(false);
+            verify(channel);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /* download one segment, after failure retry from the last written byte */
+    private void downloadSegment(FileChannel channel, int segment) throws IOException {
+        IOException error = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long from = starts[segment] + done.get(segment);
+            if (from > ends[segment]) {
+                return;
+            }
+            HttpURLConnection connection = openConnection();
+            try {
+                connection.setRequestProperty("Range", "bytes=" + from + "-" + ends[segment]);
+                if (validator != null) {
+                    connection.setRequestProperty("If-Range", validator);
+                }
+                int code = userAgent.connect(connection);
+                if (code != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("Range is not supported or resource was changed, code " + code);
+                }
+                long[] range = parseContentRange(connection.getHeaderField("Content-Range"));
+                if ((range == null) || (range[0] != from) || (range[2] != length)) {
+                    throw new IOException("Unexpected Content-Range " + connection.getHeaderField("Content-Range"));
+                }
+                InputStream in = connection.getInputStream();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long position = from;
+                int size;
+                while ((position <= ends[segment]) && ((size = in.read(buffer)) != -1)) {
+                    size = (int) Math.min(size, ends[segment] - position + 1);
+                    position += write(channel, buffer, size, position);
+                    done.set(segment, position - starts[segment]);
+                }
+                in.close();
+                if (position <= ends[segment]) {
+                    throw new EOFException("Segment " + segment + " is truncated at " + position);
+                }
+                saveState();
+                return;
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                connection.disconnect();
+            }
+        }
+        throw error;
+    }
+
+    /* connection of UserAgent without content encoding */
+    private HttpURLConnection openConnection() throws IOException {
+        HttpURLConnection connection = userAgent.prepareConnection(url);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        return connection;
+    }
+
+    private int write(FileChannel channel, byte[] buffer, int size, long position) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, size);
+        while (byteBuffer.hasRemaining()) {
+            position += channel.write(byteBuffer, position);
+        }
+        return size;
+    }
+
+    private void verify(FileChannel channel) throws IOException {
+        long total = 0;
+        for (int i = 0; i < starts.length; i++) {
+            total += done.get(i);
+        }
+        if ((total != length) || (channel.size() != length)) {
+            throw new IOException("Downloaded " + total + " bytes, file size " + channel.size() + ", expected " + length);
+        }
+    }
+
+    /* split file to equal segments, segment is not less than MIN_SEGMENT_SIZE */
+    private void split() {
+        int count = (int) Math.max(1, Math.min(segmentsMax, length / MIN_SEGMENT_SIZE));
+        long size = length / count;
+        starts = new long[count];
+        ends = new long[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = i * size;
+            ends[i] = (i == count - 1) ? length - 1 : (i + 1) * size - 1;
+        }
+        done = new AtomicLongArray(count);
+    }
+
+    /* state file: length, validator, then line "start end done" for each segment */
+    private synchronized void saveState() throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(stateFile), StandardCharsets.UTF_8)) {
+            out.write(length + "\n");
+            out.write((validator == null ? "" : validator) + "\n");
+            for (int i = 0; i < starts.length; i++) {
+                out.write(starts[i] + " " + ends[i] + " " + done.get(i) + "\n");
+            }
+        }
+    }
+
+    /* load state from previous start, return false if there is no state or resource was changed */
+    private boolean loadState() {
+        if (!stateFile.exists() || !file.exists()) {
+            return false;
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), StandardCharsets.UTF_8))) {
+            if (Long.parseLong(in.readLine()) != length) {
+                return false;
+            }
+            String savedValidator = in.readLine();
+            if ((validator == null) || !validator.equals(savedValidator)) {
+                return false;
+            }
+            List<long[]> segments = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] split = line.trim().split(" ");
+                if (split.length == 3) {
+                    segments.add(new long[]{Long.parseLong(split[0]), Long.parseLong(split[1]), Long.parseLong(split[2])});
+                }
+            }
+            if (segments.isEmpty()) {
+                return false;
+            }
+            starts = new long[segments.size()];
+            ends = new long[segments.size()];
+            done = new AtomicLongArray(segments.size());
+            for (int i = 0; i < segments.size(); i++) {
+                starts[i] = segments.get(i)[0];
+                ends[i] = segments.get(i)[1];
+                done.set(i, segments.get(i)[2]);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /* strong validator for If-Range - ETag or Last-Modified */
+    private static String validatorOf(HttpURLConnection connection) {
+        String etag = connection.getHeaderField("ETag");
+        if ((etag != null) && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return connection.getHeaderField("Last-Modified");
+    }
+
+    /* parse "bytes start-end/length", return {start, end, length} or null */
+    static long[] parseContentRange(String contentRange) {
+        if (contentRange == null) {
+            return null;
+        }
+        try {
+            String value = contentRange.trim();
+            if (value.startsWith("bytes")) {
+                value = value.substring(5).trim();
+            }
+            int dash = value.indexOf('-');
+            int slash = value.indexOf('/');
+            if ((dash < 0) || (slash < dash)) {
+                return null;
+            }
+            long total = "*".equals(value.substring(slash + 1).trim()) ? -1 : Long.parseLong(value.substring(slash + 1).trim());
+            return new long[]{Long.parseLong(value.substring(0, dash).trim()),
+                    Long.parseLong(value.substring(dash + 1, slash).trim()), total};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
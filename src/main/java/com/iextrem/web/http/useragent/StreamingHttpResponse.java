@@ -0,0 +1,39 @@
+package com.iextrem.web.http.useragent;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+
+/**
+ * Response with header and body as publisher - content is not stored in response,
+ * body is read from connection as fast as subscriber requests it
+ */
+public class StreamingHttpResponse extends HttpResponse {
+    private BodyPublisher body;
+
+    public StreamingHttpResponse(String url) {
+        super(url);
+        body = new BodyPublisher(null, Runnable::run);
+    }
+
+    /**
+     * Get body of response - publisher allows only one subscriber,
+     * cancel of subscription closes connection
+     * @return body of response
+     */
+    public Flow.Publisher<ByteBuffer> getBody() {
+        return body;
+    }
+
+    void setBody(BodyPublisher body) {
+        this.body = body;
+    }
+
+    /**
+     * Close response - cancel subscription of body and release connection, body can't be read after close
+     */
+    @Override
+    public void close() {
+        super.close();
+        body.close();
+    }
+}
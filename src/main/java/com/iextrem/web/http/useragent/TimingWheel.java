@@ -0,0 +1,130 @@
+package com.iextrem.web.http.useragent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel - 4 levels of 64 slots, slot of next level is 64 slots of previous level.
+ * Items of higher level are moved to lower level when wheel comes to their slot.
+ * Schedule and expire cost O(1) for each item, wheel is advanced by tick. Not thread-safe
+ * @param <T> type of scheduled item
+ */
+class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = 1L << (SLOT_BITS * LEVELS);
+
+    private final long tickMillis;
+    private final long startTime;
+    private final List<List<Entry<T>>> slots;      // LEVELS * SLOTS lists, created on demand
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMillis duration of tick in milliseconds
+     * @param startTime time of tick 0 in milliseconds
+     */
+    TimingWheel(long tickMillis, long startTime) {
+        this.tickMillis = tickMillis;
+        this.startTime = startTime;
+        slots = new ArrayList<>(LEVELS * SLOTS);
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(null);
+        }
+    }
+
+    /**
+     * Schedule item
+     * @param item item
+     * @param deadline time of expire in milliseconds
+     */
+    void schedule(T item, long deadline) {
+        add(new Entry<>(item, deadline), false);
+        size++;
+    }
+
+    /**
+     * Advance wheel to time and collect expired items
+     * @param now current time in milliseconds
+     * @param expired list for expired items
+     */
+    void advance(long now, List<T> expired) {
+        long targetTick = (now - startTime) / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade();
+            List<Entry<T>> slot = slots.get((int) (currentTick & SLOT_MASK));
+            if (slot == null || slot.isEmpty()) continue;
+            slots.set((int) (currentTick & SLOT_MASK), null);
+            for (Entry<T> entry : slot) {
+                if (entry.deadline <= now) {
+                    expired.add(entry.item);
+                    size--;
+                } else {
+                    // deadline was further than wheel range
+                    add(entry, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number scheduled items
+     */
+    int size() {
+        return size;
+    }
+
+    /* move items from slots of higher levels which come to current tick */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                return;
+            }
+            int index = level * SLOTS + (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            List<Entry<T>> slot = slots.get(index);
+            if (slot != null) {
+                slots.set(index, null);
+                for (Entry<T> entry : slot) {
+                    add(entry, true);
+                }
+            }
+        }
+    }
+
+    /* cascaded item can be added to current tick - its slot is expired after cascade */
+    private void add(Entry<T> entry, boolean cascade) {
+        long tick = (entry.deadline - startTime + tickMillis - 1) / tickMillis;
+        if (cascade ? (tick < currentTick) : (tick <= currentTick)) {
+            tick = cascade ? currentTick : currentTick + 1;
+        }
+        long delta = tick - currentTick;
+        if (delta >= MAX_TICKS) {
+            tick = currentTick + MAX_TICKS - 1;
+            delta = MAX_TICKS - 1;
+        }
+        int level = 0;
+        while (delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int index = level * SLOTS + (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        List<Entry<T>> slot = slots.get(index);
+        if (slot == null) {
+            slot = new ArrayList<>();
+            slots.set(index, slot);
+        }
+        slot.add(entry);
+    }
+
+    private static class Entry<T> {
+        private final T item;
+        private final long deadline;
+
+        Entry(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.iextrem.web.http.useragent;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Socket factory of UserAgent - creates sockets with delegate and counts handshakes in statistics.
+ * Handshake is counted by thread of connection right after response (UserAgent.connect), reused connection isn't counted.
+ * Session of full handshake is marked with value, handshake is resumed if its session is marked -
+ * resumed session is the same session (TLS 1.2) or is derived from it and shares its values (TLS 1.3)
+ */
+class TlsSocketFactory extends SSLSocketFactory {
+    private static final String FULL_HANDSHAKE = TlsSocketFactory.class.getName() + ".fullHandshake";
+
+    private final SSLSocketFactory delegate;
+    private final TlsStatistics statistics;
+    private final ThreadLocal<SSLSocket> connecting = new ThreadLocal<>();   // socket created for connection of thread
+
+    TlsSocketFactory(SSLSocketFactory delegate, TlsStatistics statistics) {
+        this.delegate = delegate;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Forget socket of connection of this thread, called before and after connection
+     */
+    void reset() {
+        connecting.remove();
+    }
+
+    /**
+     * Count handshake of socket created by this thread after reset, nothing if connection was reused.
+     * Called after response is received - handshake is complete
+     */
+    void handshakeCompleted() {
+        SSLSocket socket = connecting.get();
+        if (socket != null) {
+            handshake(socket);
+        }
+    }
+
+    /**
+     * Count handshake of socket in statistics
+     * @param socket socket after handshake
+     * @return true if session is resumed
+     */
+    boolean handshake(SSLSocket socket) {
+        connecting.remove();
+        return handshake(socket.getSession());
+    }
+
+    /**
+     * Count handshake of session in statistics
+     * @param session session of socket after handshake
+     * @return true if session is resumed
+     */
+    boolean handshake(SSLSession session) {
+        boolean resumed = isResumed(session);
+        statistics.handshake(resumed);
+        return resumed;
+    }
+
+    /* mark session of full handshake, return true if session is marked by earlier handshake */
+    private static boolean isResumed(SSLSession session) {
+        synchronized (session) {
+            if (session.getValue(FULL_HANDSHAKE) != null) return true;
+            session.putValue(FULL_HANDSHAKE, Boolean.TRUE);
+            return false;
+        }
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return track(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+        return track(delegate.createSocket(socket, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return track(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return track(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return track(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return track(delegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    private Socket track(Socket socket) {
+        if (socket instanceof SSLSocket) {
+            connecting.set((SSLSocket) socket);
+        }
+        return socket;
+    }
+}
@@ -0,0 +1,64 @@
+package com.iextrem.web.http.useragent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of TLS handshakes - full handshakes, resumed sessions and failures
+ */
+public class TlsStatistics {
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    void handshake(boolean resumedSession) {
+        handshakes.incrementAndGet();
+        if (resumedSession) {
+            resumed.incrementAndGet();
+        }
+    }
+
+    void failure() {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * @return number completed handshakes - full and resumed
+     */
+    public long getHandshakes() {
+        return handshakes.get();
+    }
+
+    /**
+     * @return number handshakes with resumed session
+     */
+    public long getResumed() {
+        return resumed.get();
+    }
+
+    /**
+     * @return number full handshakes
+     */
+    public long getFullHandshakes() {
+        return handshakes.get() - resumed.get();
+    }
+
+    /**
+     * @return number failed warm-up connections or handshakes
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return part of handshakes with resumed session from 0 to 1
+     */
+    public double getResumptionRate() {
+        long total = handshakes.get();
+        return (total == 0) ? 0 : (double) resumed.get() / total;
+    }
+
+    @Override
+    public String toString() {
+        return "handshakes = " + getHandshakes() + ", resumed = " + getResumed() + ", failures = " + getFailures();
+    }
+}
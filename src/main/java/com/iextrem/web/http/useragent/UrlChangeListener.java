@@ -0,0 +1,15 @@
+package com.iextrem.web.http.useragent;
+
+/**
+ * Listener of UrlMonitor - called when content of monitored address is changed
+ */
+public interface UrlChangeListener {
+
+    /**
+     * Content of address is changed. Called from worker thread of monitor,
+     * response is closed after all listeners are called
+     * @param monitoredUrl monitored address
+     * @param httpResponse response with new content
+     */
+    void onChange(MonitoredUrl monitoredUrl, HttpResponse httpResponse);
+}
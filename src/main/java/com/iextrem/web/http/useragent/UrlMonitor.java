@@ -0,0 +1,286 @@
+package com.iextrem.web.http.useragent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monitor of changes for many addresses, each address has own poll interval.
+ * Checks are planned with timing wheel, requests are conditional (If-None-Match, If-Modified-Since),
+ * content is compared by SHA-256 digest. Listeners are called only when content is changed.
+ * Poll interval is adapted to frequency of changes - from interval / 4 to interval * 4.
+ * Requests of monitor don't change Referer of UserAgent
+ */
+public class UrlMonitor {
+    private static final long DEFAULT_TICK = 100;       // 100ms
+    private static final int DEFAULT_THREADS = 16;
+    private static final int BUFFER_SIZE = 8192;
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final UserAgent userAgent;
+    private final long tickMillis;
+    private final int threads;
+    private final Map<String, MonitoredUrl> urls = new ConcurrentHashMap<>();
+    private final List<UrlChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final TimingWheel<MonitoredUrl> wheel;
+    private ScheduledExecutorService timer;
+    private volatile ExecutorService workers;
+
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong changed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Monitor with tick 100ms and 16 threads for requests
+     * @param userAgent user agent for requests
+     */
+    public UrlMonitor(UserAgent userAgent) {
+        this(userAgent, DEFAULT_TICK, DEFAULT_THREADS);
+    }
+
+    /**
+     * @param userAgent user agent for requests
+     * @param tickMillis precision of planning in milliseconds
+     * @param threads number parallel requests
+     */
+    public UrlMonitor(UserAgent userAgent, long tickMillis, int threads) {
+        this.userAgent = userAgent;
+        this.tickMillis = tickMillis;
+        this.threads = threads;
+        this.wheel = new TimingWheel<>(tickMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * Add address for monitoring, first check is done after interval.
+     * First response is saved as initial content, listeners aren't called for it
+     * @param url address
+     * @param interval poll interval in milliseconds
+     * @return monitored address, existing one if address is already monitored
+     */
+    public MonitoredUrl add(String url, long interval) {
+        MonitoredUrl monitoredUrl = new MonitoredUrl(url, interval, Math.max(tickMillis, interval / 4), interval * 4);
+        MonitoredUrl existing = urls.putIfAbsent(url, monitoredUrl);
+        if (existing != null) {
+            return existing;
+        }
+        schedule(monitoredUrl, interval);
+        return monitoredUrl;
+    }
+
+    /**
+     * Remove address from monitoring
+     * @param url address
+     * @return true if address was monitored
+     */
+    public boolean remove(String url) {
+        MonitoredUrl monitoredUrl = urls.remove(url);
+        if (monitoredUrl == null) {
+            return false;
+        }
+        monitoredUrl.setRemoved();
+        return true;
+    }
+
+    public void addListener(UrlChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(UrlChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Start monitoring
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        workers = Executors.newFixedThreadPool(threads, threadFactory("UrlMonitor-worker"));
+        timer = Executors.newSingleThreadScheduledExecutor(threadFactory("UrlMonitor-timer"));
+        timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop monitoring, checks in progress are interrupted
+     */
+    public synchronized void stop() {
+        if (timer == null) {
+            return;
+        }
+        timer.shutdownNow();
+        workers.shutdownNow();
+        timer = null;
+        workers = null;
+    }
+
+    /**
+     * @return number monitored addresses
+     */
+    public int size() {
+        return urls.size();
+    }
+
+    public MonitoredUrl get(String url) {
+        return urls.get(url);
+    }
+
+    /**
+     * @return number executed requests
+     */
+    public long getChecks() {
+        return checks.get();
+    }
+
+    /**
+     * @return number responses 304 - not modified
+     */
+    public long getNotModified() {
+        return notModified.get();
+    }
+
+    /**
+     * @return number responses with content equal to previous content
+     */
+    public long getUnchanged() {
+        return unchanged.get();
+    }
+
+    /**
+     * @return number responses with changed content
+     */
+    public long getChanged() {
+        return changed.get();
+    }
+
+    /**
+     * @return number failed requests
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /* advance timing wheel and give expired addresses to workers */
+    private void tick() {
+        List<MonitoredUrl> expired = new ArrayList<>();
+        synchronized (wheel) {
+            wheel.advance(System.currentTimeMillis(), expired);
+        }
+        ExecutorService executor = workers;
+        for (final MonitoredUrl monitoredUrl : expired) {
+            if (monitoredUrl.isRemoved()) continue;
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        check(monitoredUrl);
+                    }
+                });
+            } catch (RuntimeException e) {
+                // monitor is stopped - check after start
+                schedule(monitoredUrl, tickMillis);
+            }
+        }
+    }
+
+    private void schedule(MonitoredUrl monitoredUrl, long delay) {
+        synchronized (wheel) {
+            wheel.schedule(monitoredUrl, System.currentTimeMillis() + delay);
+        }
+    }
+
+    /* conditional request, compare digest of content, call listeners and plan next check */
+    private void check(MonitoredUrl monitoredUrl) {
+        checks.incrementAndGet();
+        HttpResponse httpResponse = userAgent.doConditionalGet(monitoredUrl.getUrl(), monitoredUrl.getETag(),
+                monitoredUrl.getLastModified(), false);
+        try {
+            long now = System.currentTimeMillis();
+            if (httpResponse.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                notModified.incrementAndGet();
+                monitoredUrl.notModified(now);
+                monitoredUrl.unchanged();
+            } else if (httpResponse.isNoError() && (httpResponse.getCode() / 100 == 2)) {
+                byte[] digest = digest(httpResponse);
+                byte[] previous = monitoredUrl.getDigest();
+                monitoredUrl.checked(now, httpResponse.getHeaders().getETag(),
+                        httpResponse.getHeaders().getFirst(ResponseHeaders.LAST_MODIFIED), digest);
+                if (previous == null) {
+                    // initial content
+                } else if (Arrays.equals(previous, digest)) {
+                    unchanged.incrementAndGet();
+                    monitoredUrl.unchanged();
+                } else {
+                    changed.incrementAndGet();
+                    monitoredUrl.changed(now);
+                    for (UrlChangeListener listener : listeners) {
+                        try {
+                            listener.onChange(monitoredUrl, httpResponse);
+                        } catch (RuntimeException e) {
+                            // failure of listener isn't error of check, next listeners are called
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            } else {
+                errors.incrementAndGet();
+            }
+        } catch (IOException | RuntimeException e) {
+            errors.incrementAndGet();
+        } finally {
+            httpResponse.close();
+            if (!monitoredUrl.isRemoved()) {
+                schedule(monitoredUrl, monitoredUrl.getCurrentInterval());
+            }
+        }
+    }
+
+    private static byte[] digest(HttpResponse httpResponse) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = httpResponse.getContentAsStream()) {
+            int size;
+            while ((size = in.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, size);
+            }
+        }
+        return messageDigest.digest();
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -1,12 +1,35 @@
 package com.iextrem.web.http.useragent;
 
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,7 +39,6 @@ public class UserAgent {
 
     private static final int DEFAULT_TIMEOUT = 10000;      // 10s
     private static final int DEFAULT_MAX_SIZE_RESPONSE = 1048576;    // 1Mb
-    private static final int BUFFER_SIZE = 4096;
 
     private boolean refererAutoset;                    // enable set referer new request from last request lastVisitedUrl
     private int connectTimeout;
@@ -34,6 +56,13 @@ public class UserAgent {
     private Map<String, String> requestProperties;
     private CookieManager cookieManager;
     private Proxy proxy;
+    private volatile Executor executor;
+    private ResponseMemoryBudget memoryBudget;
+    private BufferPool bufferPool;
+    private ContentStore contentStore;
+    private SSLContext sslContext;
+    private TlsSocketFactory sslSocketFactory;
+    private final TlsStatistics tlsStatistics = new TlsStatistics();
 
     /**
      * Returns cookie manager
@@ -49,13 +78,14 @@ public class UserAgent {
      */
     public UserAgent() {
         responseSizeMax = DEFAULT_MAX_SIZE_RESPONSE;
-        requestProperties = new HashMap<>();
+        requestProperties = new ConcurrentHashMap<>();
         refererAutoset = true;
         connectTimeout = DEFAULT_TIMEOUT;
         cookieManager = new CookieManager();
         cookieManager.setCookiePolicy(CookiePolicy.ACCEPT_ORIGINAL_SERVER);
         CookieHandler.setDefault(cookieManager);
         proxy = null;
+        bufferPool = BufferPool.getDefault();
 
     }
 
@@ -89,17 +119,37 @@ public class UserAgent {
      * @see HttpResponse
      */
     public HttpResponse doGet(String url) {
+        return doConditionalGet(url, null, null);
+    }
+
+    /**
+     * Executes conditional GET request - with If-None-Match and If-Modified-Since,
+     * code 304 (Not Modified) without content is returned if resource isn't changed
+     * @param url requested address
+     * @param eTag ETag from previous response, null - not used
+     * @param lastModified Last-Modified from previous response, null - not used
+     * @return response with information - content, number redirect, error and etc
+     * @see HttpResponse
+     */
+    public HttpResponse doConditionalGet(String url, String eTag, String lastModified) {
+        return doConditionalGet(url, eTag, lastModified, true);
+    }
+
+    /* conditional GET, Referer for next requests is updated only if updateReferer - requests of monitor don't change it */
+    HttpResponse doConditionalGet(String url, String eTag, String lastModified, boolean updateReferer) {
             HttpResponse httpResponse = new HttpResponse(url);
+            if (!admit(httpResponse)) return httpResponse;
             HttpURLConnection connection = null;
             try {
                 connection = prepareConnection(url);
+                if (eTag != null) connection.setRequestProperty("If-None-Match", eTag);
+                if (lastModified != null) connection.setRequestProperty("If-Modified-Since", lastModified);
                 // make connect and get httpResponse
-                connection.connect();
-                httpResponse.setCode(connection.getResponseCode());
+                httpResponse.setCode(connect(connection));
                 httpResponse.setHeader(connection.getHeaderFields());
                 httpResponse.setMessage(connection.getResponseMessage());
                 readFromConnection(connection, httpResponse);
-                if (refererAutoset) requestProperties.put("Referer", url);
+                if (updateReferer && refererAutoset) requestProperties.put("Referer", url);
             } catch (SocketTimeoutException ex) {
                 httpResponse.setStatus(HttpResponse.Status.ERROR_TIMEOUT);
             } catch (IllegalArgumentException ex) {
@@ -109,6 +159,7 @@ public class UserAgent {
             } catch (IOException ex) {
                 httpResponse.setStatus(HttpResponse.Status.ERROR_IO);
             } finally {
+                httpResponse.finishContent();
                 if (connection !=null) {
                     connection.disconnect();
                 }
@@ -116,6 +167,72 @@ public class UserAgent {
             return httpResponse;
         }
 
+    /**
+     * Executes GET request asynchronously
+     * @param url requested address
+     * @return future response with information - content, number redirect, error and etc
+     * @see HttpResponse
+     */
+    public CompletableFuture<HttpResponse> doGetAsync(final String url) {
+        return CompletableFuture.supplyAsync(new Supplier<HttpResponse>() {
+            @Override
+            public HttpResponse get() {
+                return doGet(url);
+            }
+        }, getExecutor());
+    }
+
+    /**
+     * Executes GET request and returns response right after header is received.
+     * Body is available as publisher and is read from connection only when subscriber requests data.
+     * Maximum size for content response is not applied
+     * @param url requested address
+     * @return response with header, code, error and body publisher
+     * @see StreamingHttpResponse
+     */
+    public StreamingHttpResponse doGetStreaming(String url) {
+        StreamingHttpResponse httpResponse = new StreamingHttpResponse(url);
+        HttpURLConnection connection = null;
+        try {
+            connection = prepareConnection(url);
+            httpResponse.setCode(connect(connection));
+            httpResponse.setHeader(connection.getHeaderFields());
+            httpResponse.setMessage(connection.getResponseMessage());
+            httpResponse.setBody(new BodyPublisher(connection, getExecutor()));
+            // connection is released by body publisher
+            connection = null;
+            if (refererAutoset) requestProperties.put("Referer", url);
+        } catch (SocketTimeoutException ex) {
+            httpResponse.setStatus(HttpResponse.Status.ERROR_TIMEOUT);
+        } catch (IllegalArgumentException ex) {
+            httpResponse.setStatus(HttpResponse.Status.ERROR_BAD_URL);
+        } catch (MalformedURLException ex) {
+            httpResponse.setStatus(HttpResponse.Status.ERROR_MALFORMED_URL);
+        } catch (IOException ex) {
+            httpResponse.setStatus(HttpResponse.Status.ERROR_IO);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+        return httpResponse;
+    }
+
+    /**
+     * Executes GET request asynchronously, future is completed right after header is received
+     * @param url requested address
+     * @return future response with header, code, error and body publisher
+     * @see #doGetStreaming(String)
+     */
+    public CompletableFuture<StreamingHttpResponse> doGetStreamingAsync(final String url) {
+        return CompletableFuture.supplyAsync(new Supplier<StreamingHttpResponse>() {
+            @Override
+            public StreamingHttpResponse get() {
+                return doGetStreaming(url);
+            }
+        }, getExecutor());
+    }
+
     /**
      * Executes POST request
      * @param url requested address
@@ -147,16 +264,13 @@ public class UserAgent {
      */
     public HttpResponse doPost(String url, String params) {
         HttpResponse httpResponse = new HttpResponse(url);
+        if (!admit(httpResponse)) return httpResponse;
         HttpURLConnection connection = null;
         try {
             connection = prepareConnection(url);
             connection.setRequestMethod("POST");
             connection.setDoOutput(true);
-            PrintWriter out = new PrintWriter(connection.getOutputStream());
-            out.print(params);
-            out.flush();
-            out.close();
-            httpResponse.setCode(connection.getResponseCode());
+            httpResponse.setCode(connect(connection, params));
             httpResponse.setHeader(connection.getHeaderFields());
             httpResponse.setMessage(connection.getResponseMessage());
             readFromConnection(connection, httpResponse);
@@ -170,6 +284,7 @@ public class UserAgent {
         } catch (IOException ex) {
             httpResponse.setStatus(HttpResponse.Status.ERROR_IO);
         } finally {
+            httpResponse.finishContent();
             if (connection !=null) {
                 connection.disconnect();
             }
@@ -177,6 +292,39 @@ public class UserAgent {
         return httpResponse;
     }
 
+    /**
+     * Download file with several parallel connections, each connection gets own byte range (HTTP Range).
+     * If server doesn't support ranges file is downloaded with one connection.
+     * Progress is saved to file "file.segments" - repeated call after error resumes download.
+     * Maximum size for content response is not applied, content is not stored in response
+     * @param url requested address
+     * @param file file for content
+     * @param segments maximum number parallel connections
+     * @return response with information - header, code, error and etc
+     * @see HttpResponse
+     */
+    public HttpResponse doDownload(String url, File file, int segments) {
+        HttpResponse httpResponse = new SegmentedDownload(this, url, file, segments).execute();
+        if (refererAutoset && httpResponse.isNoError()) requestProperties.put("Referer", url);
+        return httpResponse;
+    }
+
+    /**
+     * Executes POST request asynchronously
+     * @param url requested address
+     * @param params - parameters for POST String - "key0=value0&key1=value1&...keyn=valuen
+     * @return future response with information - content, number redirect, error and etc
+     * @see HttpResponse
+     */
+    public CompletableFuture<HttpResponse> doPostAsync(final String url, final String params) {
+        return CompletableFuture.supplyAsync(new Supplier<HttpResponse>() {
+            @Override
+            public HttpResponse get() {
+                return doPost(url, params);
+            }
+        }, getExecutor());
+    }
+
     /**
      * clear all request properties
      */
@@ -191,9 +339,43 @@ public class UserAgent {
      * @return old value for property
      */
     public String setRequestProperty(String key, String value){
+        if (value == null) return requestProperties.remove(key);
         return requestProperties.put(key, value);
     }
 
+    /**
+     * Set executor for asynchronous requests and reading of streaming bodies.
+     * By default cached pool with daemon threads is used
+     * @param executor executor for asynchronous requests
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Get executor for asynchronous requests
+     * @return executor for asynchronous requests
+     */
+    public Executor getExecutor() {
+        Executor result = executor;
+        if (result == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "UserAgent-async");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+                result = executor;
+            }
+        }
+        return result;
+    }
+
 
     /**
      * Set maximum size for content response. Too big content will be cut
@@ -204,6 +386,62 @@ public class UserAgent {
     }
 
 
+    /**
+     * Set memory budget for content of responses - budget can be shared by several UserAgent.
+     * Memory is returned to budget by HttpResponse.cleanContent() or when response is garbage collected -
+     * until dropped responses are collected new requests fail with policy FAIL.
+     * Memory for content of known length is reserved before content is read
+     * @param memoryBudget memory budget, null - without limit
+     * @see ResponseMemoryBudget
+     */
+    public void setMemoryBudget(ResponseMemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Get memory budget for content of responses
+     * @return memory budget, null - without limit
+     */
+    public ResponseMemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Set pool of buffers for reading content - buffers are returned to pool by HttpResponse.close()
+     * @param bufferPool pool of buffers
+     * @see BufferPool
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Get pool of buffers for reading content
+     * @return pool of buffers
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Set store of content - identical content of responses is kept once and compressed.
+     * Content is moved to store after it is read, store can be shared by several UserAgent.
+     * Memory of content in store is reserved from budget of store, memory of response is returned to budget of this UserAgent
+     * @param contentStore store of content, null - content is kept in response
+     * @see ContentStore
+     */
+    public void setContentStore(ContentStore contentStore) {
+        this.contentStore = contentStore;
+    }
+
+    /**
+     * Get store of content
+     * @return store of content, null - content is kept in response
+     */
+    public ContentStore getContentStore() {
+        return contentStore;
+    }
+
     /**
      * Enable cookies storage and accept cookies
      */
@@ -277,6 +515,80 @@ public class UserAgent {
         this.connectTimeout = time;
     }
 
+    /**
+     * Set SSLContext for HTTPS connections of this UserAgent - own trust store, keys and session cache.
+     * By default HTTPS connections use default SSLSocketFactory of HttpsURLConnection
+     * @param sslContext context for HTTPS connections, null - default
+     */
+    public synchronized void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+        this.sslSocketFactory = null;
+    }
+
+    /**
+     * Get SSLContext for HTTPS connections
+     * @return context for HTTPS connections, null - default
+     */
+    public synchronized SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Set size and timeout of TLS session cache - cached sessions are resumed without full handshake.
+     * If SSLContext isn't set, own SSLContext with default trust store is created for this UserAgent
+     * @param size maximum number cached sessions, 0 - without limit
+     * @param timeout lifetime of cached session in seconds, 0 - without limit
+     * @throws GeneralSecurityException if default SSLContext can't be created
+     */
+    public synchronized void setSslSessionCache(int size, int timeout) throws GeneralSecurityException {
+        if (sslContext == null) {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            setSslContext(context);
+        }
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        sessionContext.setSessionCacheSize(size);
+        sessionContext.setSessionTimeout(timeout);
+    }
+
+    /**
+     * Get statistics of TLS handshakes for HTTPS connections of this UserAgent
+     * @return statistics of TLS handshakes
+     */
+    public TlsStatistics getTlsStatistics() {
+        return tlsStatistics;
+    }
+
+    /**
+     * Prepare connections to hosts before requests - resolve address, connect, make TLS handshake
+     * and send HEAD request, so TLS sessions are cached and next requests resume them.
+     * Hosts are prepared in parallel with executor. Warm-up is done only without proxy
+     * @param hosts hosts as "host", "host:port" or "https://host:port/", port 443 by default
+     * @return statistics of warm-up handshakes
+     */
+    public TlsStatistics warmUp(String... hosts) {
+        final TlsStatistics statistics = new TlsStatistics();
+        if (proxy != null) {
+            return statistics;
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (final String host : hosts) {
+            futures.add(CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        warmUpHost(host, statistics);
+                    } catch (IOException | RuntimeException e) {
+                        statistics.failure();
+                        tlsStatistics.failure();
+                    }
+                }
+            }, getExecutor()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        return statistics;
+    }
+
     /**
      * Delete all cookies
      */
@@ -304,43 +616,130 @@ public class UserAgent {
 
     /* read data from connection and write to HttpResponse*/
     private void readFromConnection(HttpURLConnection connection, HttpResponse httpResponse) throws IOException  {
-        int dataSize = 0;
-        byte[] buffer = new byte[BUFFER_SIZE];
+        InputStream inputStream;
         try {
-            InputStream inputStream = connection.getInputStream();
-            int size = 0;
-            while ( ((size = inputStream.read(buffer, 0, BUFFER_SIZE)) != -1) && (dataSize < responseSizeMax)) {
-                if ((dataSize + size) > responseSizeMax) {
-                    httpResponse.writeContent(buffer, (responseSizeMax - dataSize));
-                    dataSize = responseSizeMax;
-                } else {
-                    dataSize += size;
-                    httpResponse.writeContent(buffer, size);
-                }
-            }
+            inputStream = connection.getInputStream();
         }
         catch (IOException e) {
             // get info about Http errors (404,500,etc)
-            InputStream err;
-            if (connection != null) {
-                err = connection.getErrorStream();
-            } else {
+            inputStream = connection.getErrorStream();
+            if (inputStream == null) {
                 throw e;
             }
-            if (err == null) {
-                throw e;
+        }
+        httpResponse.setBufferPool(bufferPool);
+        int dataSize = 0;
+        // content isn't read after its length - no buffer is taken for end of stream
+        // Content-Length of response without content isn't reserved
+        long contentLength = hasContent(connection) ? connection.getContentLengthLong() : 0;
+        int limit = (contentLength >= 0) ? (int) Math.min(contentLength, responseSizeMax) : responseSizeMax;
+        // first buffer by content length, next buffers are bigger while content isn't finished
+        int bufferSize = (contentLength > 0) ? (int) Math.min(contentLength, bufferPool.getMaxBufferSize()) : bufferPool.getMinBufferSize();
+        ReadableByteChannel channel = bufferPool.isDirect() ? Channels.newChannel(inputStream) : null;
+        MessageDigest digest = (contentStore != null) ? newContentDigest() : null;
+        try {
+            if ((contentLength >= 0) && !httpResponse.reserveContent(plannedCapacity(limit, bufferSize), true)) {
+                failMemory(httpResponse);
+                return;
             }
-            int length = 0;
-            while ( (length = err.read(buffer, 0, BUFFER_SIZE)) != -1) {
-                httpResponse.writeContent(buffer, length);
+            while (dataSize < limit) {
+                int first = -1;
+                if (contentLength < 0) {
+                    // length is unknown - check end of stream before next buffer is reserved
+                    first = inputStream.read();
+                    if (first == -1) break;
+                }
+                ByteBuffer buffer = bufferPool.acquire(Math.min(bufferSize, limit - dataSize));
+                if (!httpResponse.reserveContent(buffer.capacity())) {
+                    bufferPool.release(buffer);
+                    failMemory(httpResponse);
+                    return;
+                }
+                buffer.limit(Math.min(buffer.capacity(), limit - dataSize));
+                if (first != -1) buffer.put((byte) first);
+                boolean eof = fill(inputStream, channel, buffer);
+                buffer.flip();
+                dataSize += buffer.remaining();
+                if (digest != null) digest.update(buffer.duplicate());
+                if (!httpResponse.writeContent(buffer, false)) {
+                    throw new IOException("Content can't be stored");
+                }
+                if (eof) break;
+                bufferSize = Math.min(buffer.capacity() * 2, bufferPool.getMaxBufferSize());
+            }
+            if (digest != null) {
+                httpResponse.storeContent(contentStore, digest.digest());
+            }
+        } finally {
+            httpResponse.finishContent();
+            inputStream.close();
+        }
+    }
+
+    /* responses 1xx, 204, 304 and response to HEAD have no content even with Content-Length */
+    private static boolean hasContent(HttpURLConnection connection) throws IOException {
+        int code = connection.getResponseCode();
+        if (((code >= 100) && (code < 200)) || (code == HttpURLConnection.HTTP_NO_CONTENT)
+                || (code == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+            return false;
+        }
+        return !"HEAD".equals(connection.getRequestMethod());
+    }
+
+    private static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /* read from stream until buffer is full, return true in the end of stream */
+    private boolean fill(InputStream inputStream, ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int size;
+            if (channel != null) {
+                size = channel.read(buffer);
+            } else {
+                size = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (size > 0) buffer.position(buffer.position() + size);
             }
+            if (size == -1) return true;
+        }
+        return false;
+    }
 
+    /* capacity of buffers which read loop takes for content of known length */
+    private long plannedCapacity(int length, int bufferSize) {
+        long capacity = 0;
+        int left = length;
+        while (left > 0) {
+            int size = bufferPool.capacityOf(Math.min(bufferSize, left));
+            capacity += size;
+            left -= Math.min(size, left);
+            bufferSize = Math.min(size * 2, bufferPool.getMaxBufferSize());
         }
+        return capacity;
     }
 
+    /* reserve memory for first buffer before connection, return false if memory budget is exhausted */
+    private boolean admit(HttpResponse httpResponse) {
+        httpResponse.setMemoryBudget(memoryBudget);
+        if (!httpResponse.reserveContent(bufferPool.getMinBufferSize(), true)) {
+            failMemory(httpResponse);
+            return false;
+        }
+        return true;
+    }
+
+    private void failMemory(HttpResponse httpResponse) {
+        httpResponse.cleanContent();
+        httpResponse.setStatus(HttpResponse.Status.ERROR_MEMORY);
+        httpResponse.setMessage("Memory budget for responses is exhausted");
+    }
 
     /* make HttpURLConnection and prepare for connection - set cookies, proxy, params and etc.      */
-    private HttpURLConnection prepareConnection(String url) throws IOException {
+    HttpURLConnection prepareConnection(String url) throws IOException {
         HttpURLConnection connection;
         //URL url = new URL(url);
         if (proxy == null) {
@@ -356,9 +755,88 @@ public class UserAgent {
             }
         }
         connection.setInstanceFollowRedirects(autoRedirect);
+        if (connection instanceof HttpsURLConnection) {
+            TlsSocketFactory factory = getSslSocketFactory();
+            ((HttpsURLConnection) connection).setSSLSocketFactory(factory);
+        }
         return connection;
     }
 
+    /* connect and get response code, TLS handshake of new connection is counted - reused connection isn't counted */
+    int connect(HttpURLConnection connection) throws IOException {
+        return connect(connection, null);
+    }
+
+    /* connect, send body if not null and get response code, TLS handshake of new connection is counted.
+       Socket of connection is forgotten by thread even if request fails */
+    int connect(HttpURLConnection connection, String body) throws IOException {
+        TlsSocketFactory factory = (connection instanceof HttpsURLConnection) ? getSslSocketFactory() : null;
+        if (factory != null) factory.reset();
+        try {
+            if (body != null) {
+                PrintWriter out = new PrintWriter(connection.getOutputStream());
+                out.print(body);
+                out.flush();
+                out.close();
+            }
+            int code = connection.getResponseCode();
+            if (factory != null) factory.handshakeCompleted();
+            return code;
+        } finally {
+            if (factory != null) factory.reset();
+        }
+    }
+
+    /* socket factory for HTTPS connections - from own SSLContext or default */
+    private synchronized TlsSocketFactory getSslSocketFactory() {
+        if (sslSocketFactory == null) {
+            sslSocketFactory = new TlsSocketFactory(sslContext != null ? sslContext.getSocketFactory()
+                    : HttpsURLConnection.getDefaultSSLSocketFactory(), tlsStatistics);
+        }
+        return sslSocketFactory;
+    }
+
+    /* connect to host, make handshake and HEAD request - session ticket is received with response */
+    private void warmUpHost(String host, TlsStatistics statistics) throws IOException {
+        int port = 443;
+        if (host.contains("://")) {
+            URL url = new URL(host);
+            host = url.getHost();
+            port = (url.getPort() == -1) ? url.getDefaultPort() : url.getPort();
+        } else if (host.lastIndexOf(':') > 0) {
+            port = Integer.parseInt(host.substring(host.lastIndexOf(':') + 1));
+            host = host.substring(0, host.lastIndexOf(':'));
+        }
+        InetAddress address = InetAddress.getByName(host);
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address, port), connectTimeout);
+            socket.setSoTimeout(connectTimeout);
+            TlsSocketFactory factory = getSslSocketFactory();
+            SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, host, port, true);
+            SSLParameters parameters = sslSocket.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            sslSocket.setSSLParameters(parameters);
+            sslSocket.startHandshake();
+            statistics.handshake(factory.handshake(sslSocket));
+            OutputStream out = sslSocket.getOutputStream();
+            String userAgent = requestProperties.get("User-Agent");
+            out.write(("HEAD / HTTP/1.1\r\nHost: " + host + ((port == 443) ? "" : ":" + port) + "\r\n"
+                    + ((userAgent == null) ? "" : "User-Agent: " + userAgent + "\r\n")
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            // skip response header, HEAD response has no body
+            InputStream in = new BufferedInputStream(sslSocket.getInputStream());
+            int last = 0;
+            int b;
+            while ((last != 0x0d0a0d0a) && ((b = in.read()) != -1)) {
+                last = (last << 8) | b;
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
     /* make HashMap from Array String key0,value0, key1,value1  */
     private Map<String, String> convertArrayToHashMap(String... params){
         Map<String, String> res = new HashMap<>();
@@ -0,0 +1,93 @@
+package com.iextrem.web.http.useragent;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class BufferPoolTest {
+    public static final int BODY_SIZE = 300000;
+
+    @Test
+    public void testAcquireAndRelease() {
+        BufferPool bufferPool = new BufferPool(4096, 65536, false, 4);
+        ByteBuffer buffer = bufferPool.acquire(5000);
+        assertEquals(8192, buffer.capacity());
+        assertEquals(8192, bufferPool.capacityOf(5000));
+        assertEquals(65536, bufferPool.acquire(1000000).capacity());
+        assertEquals(4096, bufferPool.acquire(1).capacity());
+        bufferPool.release(buffer);
+        assertSame(buffer, bufferPool.acquire(8000));
+        assertEquals(1, bufferPool.getReused());
+        // foreign buffer is not taken to pool
+        bufferPool.release(ByteBuffer.allocate(5000));
+        assertEquals(4096, bufferPool.acquire(4096).capacity());
+    }
+
+    @Test
+    public void testReadWithDirectBuffers() throws Exception {
+        byte[] data = TestServer.randomData(BODY_SIZE);
+        HttpServer server = TestServer.start(data);
+        try {
+            BufferPool bufferPool = new BufferPool(4096, 65536, true, 16);
+            UserAgent userAgent = new UserAgent();
+            userAgent.setBufferPool(bufferPool);
+            HttpResponse httpResponse = userAgent.doGet(TestServer.url(server));
+            assertTrue(Arrays.equals(data, httpResponse.getContent()));
+            long allocated = bufferPool.getAllocated();
+            httpResponse.close();
+            assertEquals(0, httpResponse.getContentLength());
+            httpResponse = userAgent.doGet(TestServer.url(server));
+            assertTrue(Arrays.equals(data, httpResponse.getContent()));
+            assertTrue(bufferPool.getReused() > 0);
+            assertTrue(bufferPool.getAllocated() < 2 * allocated);
+            httpResponse.close();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testStreamFailsAfterClean() throws Exception {
+        byte[] data = TestServer.randomData(BODY_SIZE);
+        HttpServer server = TestServer.start(data);
+        try {
+            BufferPool bufferPool = new BufferPool(4096, 65536, false, 16);
+            UserAgent userAgent = new UserAgent();
+            userAgent.setBufferPool(bufferPool);
+            HttpResponse httpResponse = userAgent.doGet(TestServer.url(server));
+            InputStream in = httpResponse.getContentAsStream();
+            byte[] head = new byte[100];
+            assertEquals(100, in.read(head));
+            assertEquals(data[0], head[0]);
+            httpResponse.close();
+            // buffers of content are taken by next response
+            HttpResponse next = userAgent.doGet(TestServer.url(server));
+            assertTrue(bufferPool.getReused() > 0);
+            try {
+                in.read(head);
+                fail("stream reads buffers of other response");
+            } catch (IOException e) {
+                // content is cleaned
+            }
+            try {
+                in.read();
+                fail("stream reads buffers of other response");
+            } catch (IOException e) {
+                // content is cleaned
+            }
+            assertTrue(Arrays.equals(data, next.getContent()));
+            next.close();
+        } finally {
+            server.stop(0);
+        }
+    }
+}
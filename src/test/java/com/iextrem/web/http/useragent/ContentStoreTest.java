@@ -0,0 +1,168 @@
+package com.iextrem.web.http.useragent;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class ContentStoreTest {
+
+    @Test
+    public void testDeduplicationAndCompression() throws Exception {
+        final String page = page();
+        final byte[] body = page.getBytes(StandardCharsets.UTF_8);
+        HttpServer server = TestServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        try {
+            ContentStore contentStore = new ContentStore();
+            UserAgent userAgent = new UserAgent();
+            userAgent.setContentStore(contentStore);
+            String url = TestServer.url(server);
+            HttpResponse first = userAgent.doGet(url + "first");
+            HttpResponse second = userAgent.doGet(url + "second");
+
+            assertEquals(1, contentStore.getEntries());
+            assertEquals(1, contentStore.getHits());
+            assertEquals(0.5, contentStore.getHitRatio(), 0.001);
+            assertEquals(body.length, contentStore.getContentBytes());
+            assertEquals(2L * body.length, contentStore.getReferencedBytes());
+            assertTrue(contentStore.getStoredBytes() < body.length / 10);
+
+            assertEquals(body.length, first.getContentLength());
+            assertTrue(Arrays.equals(body, second.getContent()));
+            assertEquals(page, first.getAsText());
+            byte[] part = new byte[10];
+            assertEquals(10, first.readContent(part, 5, 10));
+            assertTrue(Arrays.equals(Arrays.copyOfRange(body, 5, 15), part));
+
+            first.close();
+            assertEquals(1, contentStore.getEntries());
+            second.close();
+            assertEquals(0, contentStore.getEntries());
+            assertEquals(0, contentStore.getStoredBytes());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testSequentialRead() throws Exception {
+        byte[] body = page().getBytes(StandardCharsets.UTF_8);
+        HttpServer server = TestServer.start(body);
+        try {
+            UserAgent userAgent = new UserAgent();
+            userAgent.setContentStore(new ContentStore());
+            HttpResponse httpResponse = userAgent.doGet(TestServer.url(server));
+            byte[] content = new byte[body.length];
+            byte[] part = new byte[100];
+            for (int off = 0; off < body.length; off += 100) {
+                int size = httpResponse.readContent(part, off, part.length);
+                System.arraycopy(part, 0, content, off, size);
+            }
+            assertTrue(Arrays.equals(body, content));
+            // read before previous position
+            assertEquals(10, httpResponse.readContent(part, 5, 10));
+            assertTrue(Arrays.equals(Arrays.copyOfRange(body, 5, 15), Arrays.copyOf(part, 10)));
+            httpResponse.close();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testMemoryBudgetAndDroppedResponses() throws Exception {
+        HttpServer server = TestServer.start(page().getBytes(StandardCharsets.UTF_8));
+        try {
+            ContentStore contentStore = new ContentStore();
+            ResponseMemoryBudget budget = new ResponseMemoryBudget(1048576, ResponseMemoryBudget.Policy.FAIL);
+            // one limit for responses and store
+            contentStore.setMemoryBudget(budget);
+            UserAgent userAgent = new UserAgent();
+            userAgent.setContentStore(contentStore);
+            userAgent.setMemoryBudget(budget);
+            HttpResponse httpResponse = userAgent.doGet(TestServer.url(server));
+            // memory of response is moved to store
+            assertEquals(contentStore.getStoredBytes(), budget.getUsed());
+            httpResponse.close();
+            assertEquals(0, budget.getUsed());
+
+            for (int i = 0; i < 3; i++) {
+                assertTrue(getAndDrop(userAgent, TestServer.url(server)));
+            }
+            assertEquals(1, contentStore.getEntries());
+            for (int i = 0; (i < 100) && (contentStore.getEntries() > 0); i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertEquals(0, contentStore.getEntries());
+            assertEquals(0, contentStore.getReferencedBytes());
+            assertEquals(0, budget.getUsed());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testStoreSharedByAgents() throws Exception {
+        byte[] body = page().getBytes(StandardCharsets.UTF_8);
+        HttpServer server = TestServer.start(body);
+        try {
+            ContentStore contentStore = new ContentStore();
+            ResponseMemoryBudget storeBudget = new ResponseMemoryBudget(1048576, ResponseMemoryBudget.Policy.FAIL);
+            contentStore.setMemoryBudget(storeBudget);
+            ResponseMemoryBudget firstBudget = new ResponseMemoryBudget(1048576, ResponseMemoryBudget.Policy.FAIL);
+            ResponseMemoryBudget secondBudget = new ResponseMemoryBudget(1048576, ResponseMemoryBudget.Policy.FAIL);
+            UserAgent first = new UserAgent();
+            first.setContentStore(contentStore);
+            first.setMemoryBudget(firstBudget);
+            UserAgent second = new UserAgent();
+            second.setContentStore(contentStore);
+            second.setMemoryBudget(secondBudget);
+
+            HttpResponse firstResponse = first.doGet(TestServer.url(server));
+            HttpResponse secondResponse = second.doGet(TestServer.url(server));
+            assertEquals(1, contentStore.getHits());
+            // content is charged to store, not to agent which stored it first
+            assertEquals(0, firstBudget.getUsed());
+            assertEquals(0, secondBudget.getUsed());
+            assertEquals(contentStore.getStoredBytes(), storeBudget.getUsed());
+
+            firstResponse.close();
+            assertEquals(contentStore.getStoredBytes(), storeBudget.getUsed());
+            assertTrue(Arrays.equals(body, secondResponse.getContent()));
+            secondResponse.close();
+            assertEquals(0, storeBudget.getUsed());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /* request without clean of response, content is released after garbage collection */
+    private static boolean getAndDrop(UserAgent userAgent, String url) {
+        return userAgent.doGet(url).isNoError();
+    }
+
+    private static String page() {
+        StringBuilder page = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            page.append("<p>boilerplate line ").append(i % 10).append("</p>\n");
+        }
+        return page.toString();
+    }
+}
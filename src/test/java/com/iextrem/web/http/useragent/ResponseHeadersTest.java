@@ -0,0 +1,139 @@
+package com.iextrem.web.http.useragent;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class ResponseHeadersTest {
+    public static final String TEXT = "\u043f\u0440\u0438\u0432\u0435\u0442";
+
+    @Test
+    public void testCaseInsensitiveSearch() {
+        ResponseHeaders headers = new ResponseHeaders(header());
+        assertEquals("text/html; charset=windows-1251", headers.getFirst("content-type"));
+        assertEquals("text/html; charset=windows-1251", headers.getFirst("CONTENT-TYPE"));
+        assertEquals(Arrays.asList("a=1", "b=2"), headers.getAll("set-cookie"));
+        assertTrue(headers.getAll("X-Absent").isEmpty());
+        assertNull(headers.getFirst("X-Absent"));
+        assertFalse(headers.contains("X-Absent"));
+        // null key with status line is skipped
+        assertEquals(6, headers.size());
+    }
+
+    @Test
+    public void testWellKnownNames() {
+        ResponseHeaders headers = new ResponseHeaders(header());
+        for (int i = 0; i < headers.size(); i++) {
+            if (headers.getName(i).equalsIgnoreCase(ResponseHeaders.CONTENT_TYPE)) {
+                assertSame(ResponseHeaders.CONTENT_TYPE, headers.getName(i));
+            }
+        }
+    }
+
+    @Test
+    public void testTypedFields() {
+        ResponseHeaders headers = new ResponseHeaders(header());
+        assertEquals("text/html", headers.getContentType());
+        assertEquals("windows-1251", headers.getCharset());
+        assertEquals(1234, headers.getContentLength());
+        assertEquals(784111777000L, headers.getDate());
+        assertEquals(-1, headers.getExpires());
+        assertEquals(600, headers.getMaxAge());
+        assertTrue(headers.isNoCache());
+        assertFalse(headers.isNoStore());
+    }
+
+    @Test
+    public void testResponseCharsetFromHeader() throws Exception {
+        HttpResponse httpResponse = new HttpResponse();
+        httpResponse.setHeader(header());
+        byte[] text = TEXT.getBytes("windows-1251");
+        httpResponse.writeContent(text, text.length);
+        assertEquals(TEXT + "\n", httpResponse.getAsText());
+        assertEquals("1234", httpResponse.getHeaderFieldOneValue("content-length"));
+    }
+
+    @Test
+    public void testResponseHeaderMap() {
+        HttpResponse httpResponse = new HttpResponse();
+        assertNull(httpResponse.getHeader());
+        assertTrue(httpResponse.getHeaderField("Content-Length").isEmpty());
+        httpResponse.setHeader(header());
+        assertEquals(Arrays.asList("1234"), httpResponse.getHeaderField("CONTENT-LENGTH"));
+        assertNull(httpResponse.getHeaderField("X-Absent"));
+        Map<String, List<String>> header = httpResponse.getHeader();
+        assertEquals(Arrays.asList("HTTP/1.1 200 OK"), header.get(null));
+        assertEquals(Arrays.asList("a=1", "b=2"), header.get("Set-Cookie"));
+        assertEquals(6, header.size());
+        assertTrue(httpResponse.headerToString().contains("null = HTTP/1.1 200 OK\n"));
+        assertTrue(httpResponse.headerToString().contains("Set-Cookie = b=2\n"));
+        assertEquals("HTTP/1.1 200 OK", httpResponse.getHeaders().getStatusLine());
+    }
+
+    @Test
+    public void testConcurrentParse() throws Exception {
+        final AtomicInteger wrong = new AtomicInteger();
+        for (int round = 0; round < 2000; round++) {
+            final ResponseHeaders headers = new ResponseHeaders(header());
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                final int field = i;
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        // each thread parses own field first, then reads all fields
+                        for (int j = 0; j < 4; j++) {
+                            switch ((field + j) % 4) {
+                                case 0:
+                                    if (headers.getContentLength() != 1234) wrong.incrementAndGet();
+                                    break;
+                                case 1:
+                                    if (headers.getDate() != 784111777000L) wrong.incrementAndGet();
+                                    break;
+                                case 2:
+                                    if (!"text/html".equals(headers.getContentType())) wrong.incrementAndGet();
+                                    break;
+                                default:
+                                    if (headers.getMaxAge() != 600) wrong.incrementAndGet();
+                            }
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        assertEquals(0, wrong.get());
+    }
+
+    private static Map<String, List<String>> header() {
+        Map<String, List<String>> header = new HashMap<>();
+        header.put(null, Arrays.asList("HTTP/1.1 200 OK"));
+        header.put("Content-type", Arrays.asList("text/html; charset=windows-1251"));
+        header.put("Content-Length", Arrays.asList("1234"));
+        header.put("date", Arrays.asList("Sun, 06 Nov 1994 08:49:37 GMT"));
+        header.put("Cache-Control", Arrays.asList("no-cache, max-age=600"));
+        header.put("Set-Cookie", Arrays.asList("a=1", "b=2"));
+        return header;
+    }
+}
@@ -0,0 +1,237 @@
+package com.iextrem.web.http.useragent;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ResponseMemoryBudgetTest {
+    public static final int BODY_SIZE = 100000;
+
+    @Test
+    public void testReserveAndRelease() throws Exception {
+        ResponseMemoryBudget budget = new ResponseMemoryBudget(1000, ResponseMemoryBudget.Policy.FAIL);
+        assertTrue(budget.reserve(600));
+        assertFalse(budget.reserve(600));
+        assertEquals(600, budget.getUsed());
+        budget.release(600);
+        assertTrue(budget.reserve(1000));
+        assertEquals(0, budget.getAvailable());
+        assertEquals(1000, budget.getPeakUsed());
+        assertEquals(1, budget.getRejected());
+    }
+
+    @Test
+    public void testWait() throws Exception {
+        final ResponseMemoryBudget budget = new ResponseMemoryBudget(1000, ResponseMemoryBudget.Policy.WAIT);
+        budget.setWaitTimeout(5000);
+        assertTrue(budget.reserve(1000));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                budget.release(500);
+            }
+        }).start();
+        assertTrue(budget.reserve(500));
+        budget.setWaitTimeout(50);
+        assertFalse(budget.reserve(1));
+    }
+
+    @Test
+    public void testFailWhenExhausted() throws Exception {
+        HttpServer server = TestServer.start(TestServer.randomData(BODY_SIZE));
+        try {
+            ResponseMemoryBudget budget = new ResponseMemoryBudget(BODY_SIZE / 2, ResponseMemoryBudget.Policy.FAIL);
+            UserAgent userAgent = new UserAgent();
+            userAgent.setMemoryBudget(budget);
+            HttpResponse httpResponse = userAgent.doGet(TestServer.url(server));
+            assertEquals(HttpResponse.Status.ERROR_MEMORY, httpResponse.getStatus());
+            assertEquals(0, httpResponse.getContentLength());
+            assertEquals(0, budget.getUsed());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testContentOfBufferSize() throws Exception {
+        byte[] data = TestServer.randomData(65536);
+        // content without length fills buffers 4Kb + 8Kb + 16Kb + 32Kb
+        final byte[] chunkedData = TestServer.randomData(61440);
+        HttpServer server = TestServer.start(data);
+        server.createContext("/chunked", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                out.write(chunkedData);
+                out.close();
+            }
+        });
+        try {
+            ResponseMemoryBudget budget = new ResponseMemoryBudget(BODY_SIZE, ResponseMemoryBudget.Policy.FAIL);
+            UserAgent userAgent = new UserAgent();
+            userAgent.setMemoryBudget(budget);
+            HttpResponse httpResponse = userAgent.doGet(TestServer.url(server));
+            assertTrue(httpResponse.isNoError());
+            assertTrue(Arrays.equals(data, httpResponse.getContent()));
+            httpResponse.close();
+            httpResponse = userAgent.doGet(TestServer.url(server) + "chunked");
+            assertTrue(httpResponse.isNoError());
+            assertTrue(Arrays.equals(chunkedData, httpResponse.getContent()));
+            httpResponse.close();
+            assertEquals(0, budget.getRejected());
+            assertEquals(0, budget.getUsed());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testNotModifiedWithLength() throws Exception {
+        HttpServer server = TestServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // length of content which isn't sent
+                exchange.getResponseHeaders().add("Content-Length", String.valueOf(BODY_SIZE * 10));
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+            }
+        });
+        try {
+            ResponseMemoryBudget budget = new ResponseMemoryBudget(BODY_SIZE, ResponseMemoryBudget.Policy.FAIL);
+            UserAgent userAgent = new UserAgent();
+            userAgent.setMemoryBudget(budget);
+            HttpResponse httpResponse = userAgent.doConditionalGet(TestServer.url(server), "\"1\"", null);
+            assertEquals(304, httpResponse.getCode());
+            assertEquals(String.valueOf(BODY_SIZE * 10), httpResponse.getHeaderFieldOneValue("Content-Length"));
+            assertTrue(httpResponse.isNoError());
+            assertEquals(0, httpResponse.getContentLength());
+            assertEquals(0, budget.getRejected());
+            assertTrue(budget.getPeakUsed() < BODY_SIZE);
+            assertEquals(0, budget.getUsed());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testWaitWithoutDeadlock() throws Exception {
+        HttpServer server = TestServer.start(TestServer.randomData(BODY_SIZE));
+        try {
+            // memory for one content and a half - responses wait for each other
+            ResponseMemoryBudget budget = new ResponseMemoryBudget(BODY_SIZE * 3 / 2, ResponseMemoryBudget.Policy.WAIT);
+            budget.setWaitTimeout(5000);
+            UserAgent userAgent = new UserAgent();
+            userAgent.setMemoryBudget(budget);
+            List<CompletableFuture<HttpResponse.Status>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(userAgent.doGetAsync(TestServer.url(server)).thenApply(new Function<HttpResponse, HttpResponse.Status>() {
+                    @Override
+                    public HttpResponse.Status apply(HttpResponse httpResponse) {
+                        httpResponse.close();
+                        return httpResponse.getStatus();
+                    }
+                }));
+            }
+            for (CompletableFuture<HttpResponse.Status> future : futures) {
+                assertEquals(HttpResponse.Status.NO_ERROR, future.get(60, TimeUnit.SECONDS));
+            }
+            assertEquals(0, budget.getUsed());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testMemoryOfClosedResponses() throws Exception {
+        HttpServer server = TestServer.start(TestServer.randomData(65536));
+        try {
+            ResponseMemoryBudget budget = new ResponseMemoryBudget(1048576, ResponseMemoryBudget.Policy.FAIL);
+            UserAgent userAgent = new UserAgent();
+            userAgent.setMemoryBudget(budget);
+            for (int i = 0; i < 40; i++) {
+                HttpResponse httpResponse = userAgent.doGet(TestServer.url(server));
+                assertEquals(HttpResponse.Status.NO_ERROR, httpResponse.getStatus());
+                httpResponse.close();
+                assertEquals(0, budget.getUsed());
+            }
+            assertEquals(0, budget.getRejected());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testMemoryOfDroppedResponses() throws Exception {
+        HttpServer server = TestServer.start(TestServer.randomData(65536));
+        try {
+            ResponseMemoryBudget budget = new ResponseMemoryBudget(1048576, ResponseMemoryBudget.Policy.FAIL);
+            UserAgent userAgent = new UserAgent();
+            userAgent.setMemoryBudget(budget);
+            // responses which are not cleaned and not collected yet hold memory - new request fails
+            assertEquals(HttpResponse.Status.ERROR_MEMORY, fillBudget(userAgent, TestServer.url(server)));
+            assertTrue(budget.getUsed() > 0);
+            // dropped responses return memory when they are collected
+            for (int i = 0; (i < 100) && (budget.getUsed() > 0); i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertEquals(0, budget.getUsed());
+            HttpResponse httpResponse = userAgent.doGet(TestServer.url(server));
+            assertEquals(HttpResponse.Status.NO_ERROR, httpResponse.getStatus());
+            httpResponse.close();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testSpillWhenExhausted() throws Exception {
+        byte[] data = TestServer.randomData(BODY_SIZE);
+        HttpServer server = TestServer.start(data);
+        try {
+            ResponseMemoryBudget budget = new ResponseMemoryBudget(BODY_SIZE / 2, ResponseMemoryBudget.Policy.SPILL);
+            UserAgent userAgent = new UserAgent();
+            userAgent.setMemoryBudget(budget);
+            HttpResponse httpResponse = userAgent.doGet(TestServer.url(server));
+            assertTrue(httpResponse.isNoError());
+            assertTrue(budget.getUsed() <= BODY_SIZE / 2);
+            assertEquals(1, budget.getSpilled());
+            assertTrue(Arrays.equals(data, httpResponse.getContent()));
+            httpResponse.cleanContent();
+            assertEquals(0, budget.getUsed());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /* requests without clean of responses until budget is exhausted, responses are dropped on return */
+    private static HttpResponse.Status fillBudget(UserAgent userAgent, String url) {
+        List<HttpResponse> responses = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            HttpResponse httpResponse = userAgent.doGet(url);
+            if (!httpResponse.isNoError()) return httpResponse.getStatus();
+            responses.add(httpResponse);
+        }
+        return HttpResponse.Status.NO_ERROR;
+    }
+}
@@ -0,0 +1,152 @@
+package com.iextrem.web.http.useragent;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class SegmentedDownloadTest {
+    public static final int FILE_SIZE = 3 * 1048576 + 12345;
+    public static final String ETAG = "\"test-etag\"";
+
+    @Test
+    public void testDownloadSegments() throws Exception {
+        byte[] data = TestServer.randomData(FILE_SIZE);
+        RangeHandler handler = new RangeHandler(data);
+        HttpServer server = TestServer.start(handler);
+        File file = File.createTempFile("download", ".bin");
+        try {
+            UserAgent userAgent = new UserAgent();
+            userAgent.setRequestProperty("Accept-Encoding", "gzip, deflate");
+            HttpResponse httpResponse = userAgent.doDownload(TestServer.url(server) + "file.bin", file, 4);
+            assertTrue(httpResponse.isNoError());
+            assertTrue(Arrays.equals(data, Files.readAllBytes(file.toPath())));
+            assertTrue(handler.rangeRequests.get() >= 3);
+            assertEquals(0, handler.encodedRequests.get());
+            assertFalse(new File(file.getPath() + SegmentedDownload.STATE_SUFFIX).exists());
+        } finally {
+            server.stop(0);
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDownloadResumeAfterBrokenConnection() throws Exception {
+        byte[] data = TestServer.randomData(FILE_SIZE);
+        RangeHandler handler = new RangeHandler(data);
+        handler.broken.set(3);
+        HttpServer server = TestServer.start(handler);
+        File file = File.createTempFile("download", ".bin");
+        try {
+            UserAgent userAgent = new UserAgent();
+            HttpResponse httpResponse = userAgent.doDownload(TestServer.url(server) + "file.bin", file, 3);
+            assertTrue(httpResponse.isNoError());
+            assertTrue(Arrays.equals(data, Files.readAllBytes(file.toPath())));
+        } finally {
+            server.stop(0);
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDownloadResumeAfterFailedCall() throws Exception {
+        byte[] data = TestServer.randomData(FILE_SIZE);
+        RangeHandler handler = new RangeHandler(data);
+        handler.broken.set(Integer.MAX_VALUE);
+        HttpServer server = TestServer.start(handler);
+        File file = File.createTempFile("download", ".bin");
+        File stateFile = new File(file.getPath() + SegmentedDownload.STATE_SUFFIX);
+        try {
+            UserAgent userAgent = new UserAgent();
+            HttpResponse httpResponse = userAgent.doDownload(TestServer.url(server) + "file.bin", file, 3);
+            assertEquals(HttpResponse.Status.ERROR_IO, httpResponse.getStatus());
+            assertTrue(stateFile.exists());
+
+            handler.broken.set(0);
+            handler.sentBytes.set(0);
+            httpResponse = userAgent.doDownload(TestServer.url(server) + "file.bin", file, 3);
+            assertTrue(httpResponse.isNoError());
+            assertTrue(Arrays.equals(data, Files.readAllBytes(file.toPath())));
+            // only rest of segments is requested again
+            assertTrue(handler.sentBytes.get() < data.length / 2);
+            assertFalse(stateFile.exists());
+        } finally {
+            server.stop(0);
+            file.delete();
+            stateFile.delete();
+        }
+    }
+
+    @Test
+    public void testParseContentRange() {
+        long[] range = SegmentedDownload.parseContentRange("bytes 100-199/1000");
+        assertEquals(100, range[0]);
+        assertEquals(199, range[1]);
+        assertEquals(1000, range[2]);
+        assertEquals(null, SegmentedDownload.parseContentRange("bytes */1000"));
+    }
+
+    /* server with support of ranges, first "broken" answers for ranges are cut in the middle */
+    private static class RangeHandler implements HttpHandler {
+        private final byte[] data;
+        private final AtomicInteger broken = new AtomicInteger();
+        private final AtomicInteger rangeRequests = new AtomicInteger();
+        private final AtomicInteger encodedRequests = new AtomicInteger();
+        private final AtomicLong sentBytes = new AtomicLong();
+
+        RangeHandler(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"identity".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"))) {
+                encodedRequests.incrementAndGet();
+            }
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().add("Content-Length", String.valueOf(data.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+            int from = 0;
+            int to = data.length - 1;
+            int code = 200;
+            if (range != null) {
+                String[] split = range.substring("bytes=".length()).split("-");
+                from = Integer.parseInt(split[0]);
+                to = Integer.parseInt(split[1]);
+                code = 206;
+                rangeRequests.incrementAndGet();
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + data.length);
+            }
+            int length = to - from + 1;
+            exchange.sendResponseHeaders(code, length);
+            OutputStream out = exchange.getResponseBody();
+            if ((length > 1) && (broken.getAndDecrement() > 0)) {
+                out.write(data, from, length / 2);
+                out.flush();
+                // exception in handler drops connection without rest of data
+                throw new IOException("connection is broken");
+            }
+            out.write(data, from, length);
+            sentBytes.addAndGet(length);
+            out.close();
+        }
+    }
+}
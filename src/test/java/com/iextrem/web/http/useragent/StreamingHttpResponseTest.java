@@ -0,0 +1,238 @@
+package com.iextrem.web.http.useragent;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class StreamingHttpResponseTest {
+    public static final int BODY_SIZE = 1048576;
+    public static final int BLOCK_SIZE = 16384;
+
+    @Test
+    public void testHeaderBeforeBody() throws Exception {
+        byte[] data = TestServer.randomData(BODY_SIZE);
+        CountDownLatch bodyAllowed = new CountDownLatch(1);
+        HttpServer server = startServer(data, bodyAllowed);
+        try {
+            UserAgent userAgent = new UserAgent();
+            StreamingHttpResponse httpResponse = userAgent.doGetStreamingAsync(TestServer.url(server)).get(10, TimeUnit.SECONDS);
+            assertTrue(httpResponse.isNoError());
+            assertEquals("application/octet-stream", httpResponse.getHeaderFieldOneValue("Content-type"));
+            bodyAllowed.countDown();
+            CollectingSubscriber subscriber = new CollectingSubscriber(-1);
+            httpResponse.getBody().subscribe(subscriber);
+            assertTrue(subscriber.finished.await(10, TimeUnit.SECONDS));
+            assertTrue(subscriber.completed);
+            assertTrue(Arrays.equals(data, subscriber.content.toByteArray()));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testBackpressureAndCancel() throws Exception {
+        EndlessHandler handler = new EndlessHandler(-1);
+        HttpServer server = TestServer.start(handler);
+        try {
+            UserAgent userAgent = new UserAgent();
+            StreamingHttpResponse httpResponse = userAgent.doGetStreaming(TestServer.url(server));
+            CollectingSubscriber subscriber = new CollectingSubscriber(2);
+            httpResponse.getBody().subscribe(subscriber);
+            assertTrue(subscriber.finished.await(10, TimeUnit.SECONDS));
+            // without demand nothing is read - server is stopped by full socket buffers
+            Thread.sleep(300);
+            long written = handler.written.get();
+            Thread.sleep(300);
+            assertEquals(written, handler.written.get());
+            assertTrue(written < 64L * BODY_SIZE);
+            assertEquals(2, subscriber.chunks.get());
+
+            subscriber.subscription.cancel();
+            assertTrue(handler.released.await(10, TimeUnit.SECONDS));
+            assertFalse(subscriber.completed);
+            assertFalse(subscriber.failed);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testCancelBlockedRead() throws Exception {
+        EndlessHandler handler = new EndlessHandler(1);
+        HttpServer server = TestServer.start(handler);
+        try {
+            final AtomicInteger running = new AtomicInteger();
+            UserAgent userAgent = new UserAgent();
+            userAgent.setExecutor(new Executor() {
+                @Override
+                public void execute(final Runnable command) {
+                    running.incrementAndGet();
+                    new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                command.run();
+                            } finally {
+                                running.decrementAndGet();
+                            }
+                        }
+                    }).start();
+                }
+            });
+            StreamingHttpResponse httpResponse = userAgent.doGetStreaming(TestServer.url(server));
+            CollectingSubscriber subscriber = new CollectingSubscriber(-1);
+            httpResponse.getBody().subscribe(subscriber);
+            for (int i = 0; (i < 100) && (subscriber.content.size() < BLOCK_SIZE); i++) {
+                Thread.sleep(10);
+            }
+            // server waits, drain loop is blocked in read
+            Thread.sleep(100);
+            assertEquals(1, running.get());
+            subscriber.subscription.cancel();
+            for (int i = 0; (i < 100) && (running.get() > 0); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, running.get());
+            assertFalse(subscriber.failed);
+        } finally {
+            handler.resume.countDown();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testCloseWithoutSubscriber() throws Exception {
+        EndlessHandler handler = new EndlessHandler(-1);
+        HttpServer server = TestServer.start(handler);
+        try {
+            UserAgent userAgent = new UserAgent();
+            StreamingHttpResponse httpResponse = userAgent.doGetStreaming(TestServer.url(server));
+            assertTrue(httpResponse.isNoError());
+            httpResponse.close();
+            assertTrue(handler.released.await(10, TimeUnit.SECONDS));
+            CollectingSubscriber subscriber = new CollectingSubscriber(-1);
+            httpResponse.getBody().subscribe(subscriber);
+            assertTrue(subscriber.failed);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /* server sends header, then waits for permission and sends body */
+    private static HttpServer startServer(final byte[] data, final CountDownLatch bodyAllowed) throws IOException {
+        return TestServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+                exchange.sendResponseHeaders(200, data.length);
+                OutputStream out = exchange.getResponseBody();
+                out.flush();
+                try {
+                    bodyAllowed.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                out.write(data);
+                out.close();
+            }
+        });
+    }
+
+    /* server writes body without end until connection is closed by client, waits for resume after pauseAfter blocks */
+    private static class EndlessHandler implements HttpHandler {
+        private final int pauseAfter;
+        private final AtomicLong written = new AtomicLong();
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final CountDownLatch resume = new CountDownLatch(1);
+
+        EndlessHandler(int pauseAfter) {
+            this.pauseAfter = pauseAfter;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            byte[] block = TestServer.randomData(BLOCK_SIZE);
+            try {
+                for (int blocks = 0; ; blocks++) {
+                    if (blocks == pauseAfter) {
+                        out.flush();
+                        resume.await(10, TimeUnit.SECONDS);
+                    }
+                    out.write(block);
+                    written.addAndGet(block.length);
+                }
+            } catch (IOException e) {
+                released.countDown();
+                throw e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /* request chunks one by one, stop requesting after limit chunks (-1 - read all) */
+    private static class CollectingSubscriber implements Flow.Subscriber<ByteBuffer> {
+        private final int limit;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private final AtomicInteger chunks = new AtomicInteger();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile boolean completed;
+        private volatile boolean failed;
+        private volatile Flow.Subscription subscription;
+
+        CollectingSubscriber(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            byte[] bytes = new byte[item.remaining()];
+            item.get(bytes);
+            synchronized (content) {
+                content.write(bytes, 0, bytes.length);
+            }
+            if (chunks.incrementAndGet() == limit) {
+                finished.countDown();
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            failed = true;
+            finished.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            finished.countDown();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.iextrem.web.http.useragent;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+
+/**
+ * Local HTTP server and data for tests
+ */
+final class TestServer {
+
+    private TestServer() {
+    }
+
+    /**
+     * Start server on free port of 127.0.0.1, handler answers all addresses
+     * @param handler handler of requests
+     * @return started server, must be stopped by test
+     * @throws IOException if server can't be started
+     */
+    static HttpServer start(HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", handler);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Start server which answers data with code 200 and Content-Length
+     * @param data content of responses
+     * @return started server, must be stopped by test
+     * @throws IOException if server can't be started
+     */
+    static HttpServer start(final byte[] data) throws IOException {
+        return start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, data.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(data);
+                out.close();
+            }
+        });
+    }
+
+    /**
+     * @param server started server
+     * @return address of root of server
+     */
+    static String url(HttpServer server) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @param size size of data
+     * @return random data, the same for the same size
+     */
+    static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(1).nextBytes(data);
+        return data;
+    }
+}
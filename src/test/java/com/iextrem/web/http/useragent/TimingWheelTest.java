@@ -0,0 +1,48 @@
+package com.iextrem.web.http.useragent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testExpireInOrder() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 0);
+        wheel.schedule("c", 100000);
+        wheel.schedule("a", 25);
+        wheel.schedule("b", 700);
+        assertEquals(3, wheel.size());
+        List<String> expired = new ArrayList<>();
+        wheel.advance(20, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(30, expired);
+        assertEquals(Arrays.asList("a"), expired);
+        wheel.advance(699, expired);
+        assertEquals(1, expired.size());
+        wheel.advance(700, expired);
+        assertEquals(Arrays.asList("a", "b"), expired);
+        wheel.advance(99999, expired);
+        assertEquals(2, expired.size());
+        wheel.advance(100000, expired);
+        assertEquals(Arrays.asList("a", "b", "c"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testDeadlineOutOfRange() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, 0);
+        long deadline = 20000000;   // more than 64^4 ticks
+        wheel.schedule("far", deadline);
+        List<String> expired = new ArrayList<>();
+        wheel.advance(deadline - 1, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(deadline, expired);
+        assertEquals(Arrays.asList("far"), expired);
+    }
+}
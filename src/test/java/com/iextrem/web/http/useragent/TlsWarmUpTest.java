@@ -0,0 +1,225 @@
+package com.iextrem.web.http.useragent;
+
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Local TLS server with self-signed certificate, certificate is generated by keytool
+ */
+public class TlsWarmUpTest {
+    public static final String PASSWORD = "changeit";
+    public static final String BODY = "ok";
+    public static final int PARALLEL = 8;
+
+    @Test
+    public void testWarmUpAndResume() throws Exception {
+        KeyStore keyStore = createKeyStore();
+        SSLServerSocket serverSocket = startServer(keyStore, 1);
+        try {
+            UserAgent userAgent = new UserAgent();
+            userAgent.setSslContext(clientContext(keyStore));
+            userAgent.setSslSessionCache(100, 3600);
+            String host = "localhost:" + serverSocket.getLocalPort();
+
+            TlsStatistics statistics = userAgent.warmUp(host);
+            assertEquals(1, statistics.getHandshakes());
+            assertEquals(0, statistics.getResumed());
+            assertEquals(0, statistics.getFailures());
+
+            statistics = userAgent.warmUp(host);
+            assertEquals(1, statistics.getResumed());
+
+            HttpResponse httpResponse = userAgent.doGet("https://" + host + "/");
+            assertTrue(httpResponse.isNoError());
+            assertEquals(BODY + "\n", httpResponse.getAsText());
+            assertEquals(3, userAgent.getTlsStatistics().getHandshakes());
+            assertEquals(2, userAgent.getTlsStatistics().getResumed());
+
+            assertEquals(1, userAgent.warmUp("localhost:1").getFailures());
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void testParallelFullHandshakes() throws Exception {
+        KeyStore keyStore = createKeyStore();
+        // handshakes start together - no session is cached before, all handshakes are full
+        SSLServerSocket serverSocket = startServer(keyStore, PARALLEL);
+        ExecutorService executor = Executors.newFixedThreadPool(PARALLEL);
+        try {
+            UserAgent userAgent = new UserAgent();
+            userAgent.setSslContext(clientContext(keyStore));
+            userAgent.setExecutor(executor);
+            String[] hosts = new String[PARALLEL];
+            Arrays.fill(hosts, "localhost:" + serverSocket.getLocalPort());
+
+            TlsStatistics statistics = userAgent.warmUp(hosts);
+            assertEquals(0, statistics.getFailures());
+            assertEquals(PARALLEL, statistics.getHandshakes());
+            assertEquals(0, statistics.getResumed());
+        } finally {
+            executor.shutdown();
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void testSessionsOfSameTime() {
+        TlsStatistics statistics = new TlsStatistics();
+        TlsSocketFactory factory = new TlsSocketFactory(null, statistics);
+        // full handshakes of parallel connections in the same millisecond
+        SSLSession first = session(1000);
+        SSLSession second = session(1000);
+        assertFalse(factory.handshake(first));
+        assertFalse(factory.handshake(second));
+        assertTrue(factory.handshake(first));
+        assertEquals(3, statistics.getHandshakes());
+        assertEquals(1, statistics.getResumed());
+    }
+
+    /* session with peer localhost:443, creation time and own values */
+    private static SSLSession session(final long creationTime) {
+        final Map<String, Object> values = new HashMap<>();
+        return (SSLSession) Proxy.newProxyInstance(SSLSession.class.getClassLoader(), new Class<?>[]{SSLSession.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                            case "getPeerHost":
+                                return "localhost";
+                            case "getPeerPort":
+                                return 443;
+                            case "getCreationTime":
+                                return creationTime;
+                            case "getValue":
+                                return values.get((String) args[0]);
+                            case "putValue":
+                                values.put((String) args[0], args[1]);
+                                return null;
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+                });
+    }
+
+    private static SSLContext clientContext(KeyStore keyStore) throws Exception {
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        return sslContext;
+    }
+
+    private static KeyStore createKeyStore() throws Exception {
+        File file = File.createTempFile("keystore", ".p12");
+        file.delete();
+        try {
+            String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+            Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server", "-keyalg", "RSA",
+                    "-keysize", "2048", "-dname", "CN=localhost", "-ext", "san=dns:localhost,ip:127.0.0.1",
+                    "-validity", "30", "-storetype", "PKCS12", "-keystore", file.getPath(),
+                    "-storepass", PASSWORD, "-keypass", PASSWORD).redirectErrorStream(true).start();
+            InputStream in = process.getInputStream();
+            while (in.read() != -1) {
+                // skip output of keytool
+            }
+            assertEquals(0, process.waitFor());
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            try (InputStream keyStoreIn = new FileInputStream(file)) {
+                keyStore.load(keyStoreIn, PASSWORD.toCharArray());
+            }
+            return keyStore;
+        } finally {
+            file.delete();
+        }
+    }
+
+    /* server answers BODY for each request and closes connection, connections are answered in parallel
+       when group of connections is accepted */
+    private static SSLServerSocket startServer(KeyStore keyStore, final int group) throws Exception {
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, PASSWORD.toCharArray());
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        final SSLServerSocket serverSocket = (SSLServerSocket) sslContext.getServerSocketFactory().createServerSocket(0);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    List<SSLSocket> sockets = new ArrayList<>();
+                    try {
+                        while (sockets.size() < group) {
+                            sockets.add((SSLSocket) serverSocket.accept());
+                        }
+                    } catch (IOException e) {
+                        // server is closed
+                    }
+                    for (final SSLSocket socket : sockets) {
+                        Thread answer = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                answer(socket);
+                            }
+                        });
+                        answer.setDaemon(true);
+                        answer.start();
+                    }
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return serverSocket;
+    }
+
+    private static void answer(SSLSocket socket) {
+        try (SSLSocket closed = socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(closed.getInputStream(), StandardCharsets.ISO_8859_1));
+            String line;
+            while (((line = in.readLine()) != null) && !line.isEmpty()) {
+                // skip request header
+            }
+            OutputStream out = closed.getOutputStream();
+            out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: " + BODY.length()
+                    + "\r\nConnection: close\r\n\r\n" + BODY).getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+        } catch (Exception e) {
+            // next connection
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.iextrem.web.http.useragent;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class UrlMonitorTest {
+    public static final long INTERVAL = 50;
+
+    @Test
+    public void testNotifyOnlyOnChange() throws Exception {
+        final AtomicReference<String> content = new AtomicReference<>("first");
+        HttpServer server = startServer(content);
+        UserAgent userAgent = new UserAgent();
+        UrlMonitor monitor = new UrlMonitor(userAgent, 10, 2);
+        try {
+            final CountDownLatch changed = new CountDownLatch(1);
+            final AtomicReference<String> changedText = new AtomicReference<>();
+            monitor.addListener(new UrlChangeListener() {
+                @Override
+                public void onChange(MonitoredUrl monitoredUrl, HttpResponse httpResponse) {
+                    try {
+                        changedText.set(httpResponse.getAsText());
+                    } catch (IOException e) {
+                        changedText.set(e.toString());
+                    }
+                    changed.countDown();
+                }
+            });
+            String url = TestServer.url(server);
+            MonitoredUrl monitoredUrl = monitor.add(url, INTERVAL);
+            monitor.start();
+            for (int i = 0; (i < 200) && (monitor.getNotModified() < 2); i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(monitor.getNotModified() >= 2);
+            assertEquals(0, monitor.getChanged());
+            assertTrue(monitoredUrl.getCurrentInterval() > INTERVAL);
+
+            content.set("second");
+            assertTrue(changed.await(10, TimeUnit.SECONDS));
+            assertEquals("second\n", changedText.get());
+            assertEquals(1, monitor.getChanged());
+            assertEquals(1, monitoredUrl.getChanges());
+            assertTrue(monitor.remove(url));
+            assertEquals(0, monitor.size());
+        } finally {
+            monitor.stop();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testSameContentWithoutValidators() throws Exception {
+        HttpServer server = TestServer.start("the same".getBytes(StandardCharsets.UTF_8));
+        UserAgent userAgent = new UserAgent();
+        UrlMonitor monitor = new UrlMonitor(userAgent, 10, 2);
+        try {
+            final AtomicInteger notified = new AtomicInteger();
+            monitor.addListener(new UrlChangeListener() {
+                @Override
+                public void onChange(MonitoredUrl monitoredUrl, HttpResponse httpResponse) {
+                    notified.incrementAndGet();
+                }
+            });
+            MonitoredUrl monitoredUrl = monitor.add(TestServer.url(server), INTERVAL);
+            monitor.start();
+            for (int i = 0; (i < 200) && (monitor.getUnchanged() < 2); i++) {
+                Thread.sleep(10);
+            }
+            // server answers 200 without ETag and Last-Modified - content is compared by digest
+            assertTrue(monitor.getUnchanged() >= 2);
+            assertEquals(0, monitor.getNotModified());
+            assertEquals(0, monitor.getChanged());
+            assertEquals(0, notified.get());
+            assertEquals(0, monitoredUrl.getChanges());
+            assertTrue(monitoredUrl.getCurrentInterval() > INTERVAL);
+        } finally {
+            monitor.stop();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testFailingListener() throws Exception {
+        final AtomicReference<String> content = new AtomicReference<>("first");
+        HttpServer server = startServer(content);
+        UserAgent userAgent = new UserAgent();
+        UrlMonitor monitor = new UrlMonitor(userAgent, 10, 2);
+        try {
+            final CountDownLatch changed = new CountDownLatch(1);
+            monitor.addListener(new UrlChangeListener() {
+                @Override
+                public void onChange(MonitoredUrl monitoredUrl, HttpResponse httpResponse) {
+                    throw new IllegalStateException("failure of listener");
+                }
+            });
+            monitor.addListener(new UrlChangeListener() {
+                @Override
+                public void onChange(MonitoredUrl monitoredUrl, HttpResponse httpResponse) {
+                    changed.countDown();
+                }
+            });
+            monitor.add(TestServer.url(server), INTERVAL);
+            monitor.start();
+            for (int i = 0; (i < 200) && (monitor.getNotModified() < 1); i++) {
+                Thread.sleep(10);
+            }
+            content.set("second");
+            // next listener is called, failure of listener isn't error of check
+            assertTrue(changed.await(10, TimeUnit.SECONDS));
+            assertEquals(1, monitor.getChanged());
+            assertEquals(0, monitor.getErrors());
+        } finally {
+            monitor.stop();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testRefererIsNotChanged() throws Exception {
+        final List<String> referers = new CopyOnWriteArrayList<>();
+        HttpServer server = TestServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                referers.add(String.valueOf(exchange.getRequestHeaders().getFirst("Referer")));
+                byte[] body = "the same".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        UserAgent userAgent = new UserAgent();
+        UrlMonitor monitor = new UrlMonitor(userAgent, 10, 2);
+        try {
+            monitor.add(TestServer.url(server) + "first", INTERVAL);
+            monitor.add(TestServer.url(server) + "second", INTERVAL);
+            monitor.start();
+            for (int i = 0; (i < 200) && (monitor.getUnchanged() < 4); i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(referers.size() >= 4);
+            for (String referer : referers) {
+                assertEquals("null", referer);
+            }
+        } finally {
+            monitor.stop();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testValidatorsOfLastResponse() throws Exception {
+        final AtomicReference<String> content = new AtomicReference<>("first");
+        final AtomicReference<String> eTag = new AtomicReference<>("\"1\"");
+        HttpServer server = TestServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String current = eTag.get();
+                if (current != null) {
+                    exchange.getResponseHeaders().add("ETag", current);
+                    if (current.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                        exchange.sendResponseHeaders(304, -1);
+                        exchange.close();
+                        return;
+                    }
+                }
+                byte[] body = content.get().getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        UrlMonitor monitor = new UrlMonitor(new UserAgent(), 10, 2);
+        try {
+            MonitoredUrl monitoredUrl = monitor.add(TestServer.url(server), INTERVAL);
+            monitor.start();
+            for (int i = 0; (i < 200) && (monitor.getNotModified() < 2); i++) {
+                Thread.sleep(10);
+            }
+            // 304 keeps validators
+            assertTrue(monitor.getNotModified() >= 2);
+            assertEquals("\"1\"", monitoredUrl.getETag());
+
+            // new content without ETag - old ETag isn't sent any more
+            content.set("second");
+            eTag.set(null);
+            for (int i = 0; (i < 200) && (monitor.getChanged() < 1); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, monitor.getChanged());
+            assertNull(monitoredUrl.getETag());
+            assertNull(monitoredUrl.getLastModified());
+        } finally {
+            monitor.stop();
+            server.stop(0);
+        }
+    }
+
+    /* server with ETag = hash of content, answers 304 for If-None-Match with current ETag */
+    private static HttpServer startServer(final AtomicReference<String> content) throws IOException {
+        return TestServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = content.get().getBytes(StandardCharsets.UTF_8);
+                String eTag = "\"" + content.get().hashCode() + "\"";
+                exchange.getResponseHeaders().add("ETag", eTag);
+                if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+    }
+}